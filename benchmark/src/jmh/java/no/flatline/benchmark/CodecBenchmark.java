@@ -0,0 +1,102 @@
+package no.flatline.benchmark;
+
+import no.flatline.Compressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compress and decompress throughput of a codec on one input.
+ * Besides operations per second, every benchmark reports the uncompressed megabytes
+ * processed per second as the {@code megabytes} counter. Run with the GC profiler for
+ * the allocation rate, and see {@link Ratio} for the compression ratio.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public abstract class CodecBenchmark {
+
+    @Param({"Huffman", "LempelZiv", "LempelZivHuffman", "RangeCoder", "Adaptive"})
+    public String codec;
+
+    private Compressor compressor;
+    private byte[] raw;
+    private byte[] compressed;
+
+    /**
+     * Returns the input to benchmark.
+     *
+     * @return the uncompressed input.
+     * @throws IOException if the input can not be read.
+     */
+    abstract byte[] input() throws IOException;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        compressor = Inputs.codec(codec);
+        raw = input();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 64);
+        compressor.compress(new ByteArrayInputStream(raw), out);
+        compressed = out.toByteArray();
+    }
+
+    @Benchmark
+    public long compress(Throughput throughput) throws IOException {
+        Sink sink = new Sink();
+        compressor.compress(new ByteArrayInputStream(raw), sink);
+        throughput.megabytes += raw.length / 1e6;
+        return sink.count;
+    }
+
+    @Benchmark
+    public long decompress(Throughput throughput) throws IOException {
+        Sink sink = new Sink();
+        compressor.decompress(new ByteArrayInputStream(compressed), sink);
+        throughput.megabytes += raw.length / 1e6;
+        return sink.count;
+    }
+
+    /**
+     * Uncompressed megabytes processed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    /**
+     * Counts and drops everything written to it, so that writing the output costs nothing.
+     */
+    private static final class Sink extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
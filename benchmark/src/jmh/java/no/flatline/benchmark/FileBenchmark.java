@@ -0,0 +1,23 @@
+package no.flatline.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+
+import java.io.IOException;
+
+/**
+ * Benchmarks the codecs on the files under resource/source.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public class FileBenchmark extends CodecBenchmark {
+
+    @Param({"diverse.pdf", "diverse.txt", "opg12.pdf", "opg12.tex", "opg12.txt"})
+    public String file;
+
+    @Override
+    byte[] input() throws IOException {
+        return Inputs.file(file);
+    }
+}
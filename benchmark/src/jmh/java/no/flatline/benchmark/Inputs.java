@@ -0,0 +1,117 @@
+package no.flatline.benchmark;
+
+import no.flatline.Compressor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Codecs and inputs shared by the benchmarks.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class Inputs {
+
+    /** Every codec, by class name in {@code no.flatline}. */
+    static final String[] CODECS = {"Huffman", "LempelZiv", "LempelZivHuffman", "RangeCoder", "Adaptive"};
+    /** The files under resource/source. */
+    static final String[] FILES = {"diverse.pdf", "diverse.txt", "opg12.pdf", "opg12.tex", "opg12.txt"};
+    /** The kinds of synthetic data. */
+    static final String[] KINDS = {"random", "skewed", "repetitive"};
+
+    private Inputs() {}
+
+    /**
+     * Creates a codec with its default settings.
+     *
+     * @param name the class name of the codec in {@code no.flatline}.
+     * @return the codec.
+     */
+    static Compressor codec(String name) {
+        try {
+            return (Compressor) Class.forName("no.flatline." + name).newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unknown codec " + name, e);
+        }
+    }
+
+    /**
+     * Reads a file from the directory in the {@code flatline.source} property, resource/source by default.
+     *
+     * @param name the name of the file.
+     * @return the contents of the file.
+     * @throws IOException if the file can not be read.
+     */
+    static byte[] file(String name) throws IOException {
+        return Files.readAllBytes(Paths.get(System.getProperty("flatline.source", "resource/source"), name));
+    }
+
+    /**
+     * Parses a size such as 1KB, 64MB or 1GB.
+     *
+     * @param size the size.
+     * @return the size in bytes.
+     */
+    static int size(String size) {
+        String unit = size.replaceAll("^[0-9]+", "");
+        long n = Long.parseLong(size.substring(0, size.length() - unit.length()));
+        switch (unit.toUpperCase()) {
+            case "GB":
+                n <<= 10;
+            case "MB":
+                n <<= 10;
+            case "KB":
+                n <<= 10;
+            case "":
+            case "B":
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown unit in " + size);
+        }
+        if (n > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Size too large: " + size);
+        return (int) n;
+    }
+
+    /**
+     * Generates synthetic data.
+     * <ul>
+     *     <li>random: uniformly random bytes, which can not be compressed.</li>
+     *     <li>skewed: 16 letters where every letter is half as likely as the one before, about 2 bits per byte.</li>
+     *     <li>repetitive: a 4 KB phrase of letters repeated, with 1 in 100 bytes changed.</li>
+     * </ul>
+     *
+     * @param kind the kind of data.
+     * @param size the number of bytes.
+     * @return the data, the same for the same kind and size.
+     */
+    static byte[] synthetic(String kind, int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        switch (kind) {
+            case "random":
+                random.nextBytes(data);
+                break;
+            case "skewed":
+                for (int i = 0; i < size; i++) {
+                    data[i] = (byte) ('a' + Integer.numberOfTrailingZeros(random.nextInt() | 1 << 15));
+                }
+                break;
+            case "repetitive":
+                byte[] phrase = new byte[4096];
+                for (int i = 0; i < phrase.length; i++) {
+                    phrase[i] = (byte) ('a' + random.nextInt(26));
+                }
+                for (int i = 0; i < size; i++) {
+                    data[i] = random.nextInt(100) == 0 ? (byte) ('a' + random.nextInt(26)) : phrase[i % phrase.length];
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kind of data " + kind);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,59 @@
+package no.flatline.benchmark;
+
+import no.flatline.Compressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Prints the compressed size of every benchmark input with every codec. The ratio does not
+ * depend on timing, so it is computed once here instead of in the JMH benchmarks.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class Ratio {
+
+    private Ratio() {}
+
+    /**
+     * Prints the table.
+     *
+     * @param args the sizes of synthetic data, 1KB and 1MB by default.
+     * @throws IOException if a file can not be read.
+     */
+    public static void main(String[] args) throws IOException {
+        String[] sizes = args.length > 0 ? args : new String[]{"1KB", "1MB"};
+        System.out.printf("%-18s %-22s %12s %12s %8s%n", "codec", "input", "size", "compressed", "ratio");
+        for (String codec : Inputs.CODECS) {
+            Compressor compressor = Inputs.codec(codec);
+            for (String file : Inputs.FILES) {
+                print(compressor, codec, file, Inputs.file(file));
+            }
+            for (String kind : Inputs.KINDS) {
+                for (String size : sizes) {
+                    print(compressor, codec, kind + " " + size, Inputs.synthetic(kind, Inputs.size(size)));
+                }
+            }
+        }
+    }
+
+    private static void print(Compressor compressor, String codec, String input, byte[] raw) throws IOException {
+        long[] count = {0};
+        compressor.compress(new ByteArrayInputStream(raw), new OutputStream() {
+            @Override
+            public void write(int b) {
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                count[0] += len;
+            }
+        });
+        System.out.printf("%-18s %-22s %12d %12d %7.2f%%%n", codec, input, raw.length, count[0],
+                100.0 * count[0] / Math.max(1, raw.length));
+    }
+}
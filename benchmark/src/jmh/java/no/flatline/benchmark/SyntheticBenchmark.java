@@ -0,0 +1,24 @@
+package no.flatline.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmarks the codecs on generated random, skewed and repetitive data from 1 KB to 1 GB.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public class SyntheticBenchmark extends CodecBenchmark {
+
+    @Param({"random", "skewed", "repetitive"})
+    public String kind;
+
+    @Param({"1KB", "1MB", "64MB", "1GB"})
+    public String size;
+
+    @Override
+    byte[] input() {
+        return Inputs.synthetic(kind, Inputs.size(size));
+    }
+}
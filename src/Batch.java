@@ -0,0 +1,201 @@
+import no.flatline.Archive;
+import no.flatline.Compressor;
+import no.flatline.file.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Compresses or decompresses many files at once. Files are read and written on a fixed
+ * number of threads, while the blocks of every file are coded on the pool of the compressor,
+ * so the threads only bound how many files are open at the same time.
+ * Directories are packed into an {@link Archive}, and archives are extracted into a directory.
+ * Verifying decodes files and archive entries without writing them, checking their checksums.
+ * Files compressed with another codec than the one of the batch are decompressed with that codec.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class Batch {
+
+    /** Default number of files processed at the same time. */
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final Compressor compressor;
+    private final Mode mode;
+    private final int threads;
+    private final boolean shareTable;
+    private final Collection<String> entries;
+
+    /**
+     * Creates a batch.
+     *
+     * @param compressor the compressor to use. It must be safe to use from several threads.
+     * @param mode whether to compress, decompress or verify.
+     * @param threads the number of files processed at the same time.
+     * @param shareTable whether directories are packed with a table shared by all their files.
+     * @param entries the entries to extract from archives, or null for all of them.
+     */
+    Batch(Compressor compressor, Mode mode, int threads, boolean shareTable, Collection<String> entries) {
+        if (threads < 1) throw new IllegalArgumentException("Thread count must be at least 1");
+        this.compressor = compressor;
+        this.mode = mode;
+        this.threads = threads;
+        this.shareTable = shareTable;
+        this.entries = entries;
+    }
+
+    /**
+     * Parses the value of the thread count option.
+     *
+     * @param value the value given, or null if it is missing.
+     * @return the thread count.
+     * @throws IllegalArgumentException if the value is missing or not a positive number.
+     */
+    static int parseThreads(String value) {
+        if (value == null || !value.matches("^[0-9]+$") || Integer.parseInt(value) < 1) {
+            throw new IllegalArgumentException("Thread count must be a positive number, was " + value);
+        }
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Processes every file. A file that fails does not stop the others.
+     *
+     * @param files the files to process.
+     * @return the result of every file, in the order of {@code files}.
+     */
+    List<Result> run(List<File> files) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (File file : files) {
+                futures.add(executor.submit(task(file)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < files.size(); i++) {
+                results.add(get(futures.get(i), files.get(i)));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<Result> task(File file) {
+        return () -> {
+            long size = file.isDirectory() ? size(file.toPath()) : file.length();
+            long start = System.nanoTime();
+            try {
+                if (mode == Mode.Compress && file.isDirectory()) {
+                    Archive.pack(file, compressor, shareTable);
+                } else if (mode == Mode.Compress) {
+                    compressor.compress(file);
+                } else if (mode == Mode.Verify && FileUtil.getExtension(file).equals(Archive.EXTENSION)) {
+                    try (Archive archive = Archive.open(file, compressor)) {
+                        archive.verify();
+                    }
+                } else if (mode == Mode.Verify) {
+                    codec(file).verify(file);
+                } else if (FileUtil.getExtension(file).equals(Archive.EXTENSION)) {
+                    Archive.unpack(file, entries, compressor);
+                } else {
+                    codec(file).decompress(file);
+                }
+                return new Result(file, size, System.nanoTime() - start, null);
+            } catch (Exception e) {
+                return new Result(file, size, System.nanoTime() - start, e);
+            }
+        };
+    }
+
+    /**
+     * Returns the codec to decompress a file with: the compressor of the batch for its own
+     * extension, and the default codec of any other extension.
+     */
+    private Compressor codec(File file) {
+        String extension = FileUtil.getExtension(file);
+        return extension.equals(compressor.getExtension()) ? compressor : Compressor.forExtension(extension);
+    }
+
+    /**
+     * Returns the total size of the regular files under a directory.
+     */
+    private static long size(Path dir) throws IOException {
+        try (Stream<Path> walk = Files.walk(dir)) {
+            long total = 0;
+            for (Path path : (Iterable<Path>) walk::iterator) {
+                if (Files.isRegularFile(path)) total += Files.size(path);
+            }
+            return total;
+        }
+    }
+
+    private static Result get(Future<Result> future, File file) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(file, file.length(), 0, e);
+        } catch (ExecutionException e) {
+            return new Result(file, file.length(), 0, e.getCause());
+        }
+    }
+
+    /**
+     * Prints one line per file, successes to {@code out} and failures to {@code err}.
+     *
+     * @param results the results to print.
+     * @param out the stream to print successes to.
+     * @param err the stream to print failures to.
+     * @return the number of files that failed.
+     */
+    int report(List<Result> results, PrintStream out, PrintStream err) {
+        String verb = mode.name().toLowerCase();
+        String done = mode == Mode.Verify ? "verified" : verb + "ed";
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error == null) {
+                out.printf("%s %s (%d bytes) in %d ms%n", Character.toUpperCase(done.charAt(0)) + done.substring(1),
+                        result.file.getPath(), result.bytes, result.nanos / 1_000_000);
+            } else {
+                failed++;
+                err.println("Could not " + verb + " " + result.file.getPath() + ": " + result.error);
+            }
+        }
+        out.printf("%d of %d files %s%n", results.size() - failed, results.size(), done);
+        return failed;
+    }
+
+    /**
+     * The outcome of one file.
+     */
+    static final class Result {
+
+        final File file;
+        final long bytes;
+        final long nanos;
+        /** The error the file failed with, or null if it succeeded. */
+        final Throwable error;
+
+        Result(File file, long bytes, long nanos, Throwable error) {
+            this.file = file;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+}
@@ -1,6 +1,10 @@
+import no.flatline.Adaptive;
+import no.flatline.Compressor;
 import no.flatline.Huffman;
+import no.flatline.Model;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -11,12 +15,17 @@ import java.util.Scanner;
  * @author Joakim Sæther
  * @author Daniel Klock
  * @author Roy Åne Sylthe
- * @version 0.1.1
+ * @version 0.2.0
  */
 public final class CompressClient {
     private static final String printfExp = "%1$-5s %2$s %n";
 
     private static final List<File> files = new ArrayList<>();
+    private static int threads = Batch.DEFAULT_THREADS;
+    private static String model;
+    private static boolean shareTable;
+    private static boolean auto;
+    private static int failed;
 
     /**
      * Give the user a interactive CLI mode.
@@ -26,6 +35,7 @@ public final class CompressClient {
 
         System.out.println("Welcome to FlatFile's ultimate compression tool\u2122.");
 
+        Scanner scanner = new Scanner(System.in);
         do {
             System.out.println("Add files to compress.");
             if (files.size() != 0) {
@@ -41,7 +51,6 @@ public final class CompressClient {
                 System.out.printf(printfExp,"[" + (i + 1) + "]", filesInCurrentDir[i].getName());
             }
             System.out.printf(printfExp,"[" + (filesInCurrentDir.length + 1) + "]","Compress");
-            Scanner scanner = new Scanner(System.in);
             String input = scanner.next();
             if (input.matches("^[0-9]+$")) {
                 int inputInt = Integer.parseInt(input);
@@ -67,44 +76,74 @@ public final class CompressClient {
 
     /**
      * Parse commandline arguments.
-     * @param args - The arguments from the CLI.
+     * Files that can not be read are kept, so that they are reported as failed.
+     * Directories are packed into one archive each.
+     * @param args - The arguments from the CLI, files and directories, optionally -j or --threads with the number
+     *             of files to compress at once, and --shared-table to code the files of an archive with one table.
+     *             With -m or --model, files are compressed with a trained model, given by its file or ID.
+     *             With -a or --auto, every block is stored, Huffman coded or LZ77 coded, whichever suits it.
+     * @throws IllegalArgumentException if an option is not valid.
      */
     private static void parseArgs(String[] args) {
-        for (String arg : args) {
-            // Create list of files to compress.
-            if (arg.matches("^.+\\..+$")) {
-                File file = new File(arg);
-                if (file.canRead()) {
-                    files.add(file);
-                }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-j") || arg.equals("--threads")) {
+                threads = Batch.parseThreads(++i < args.length ? args[i] : null);
+            } else if (arg.startsWith("--threads=")) {
+                threads = Batch.parseThreads(arg.substring("--threads=".length()));
+            } else if (arg.equals("-m") || arg.equals("--model")) {
+                if (++i == args.length) throw new IllegalArgumentException("Missing model");
+                model = args[i];
+            } else if (arg.equals("--shared-table")) {
+                shareTable = true;
+            } else if (arg.equals("-a") || arg.equals("--auto")) {
+                auto = true;
+            } else if (arg.matches("^.+\\..+$") || new File(arg).isDirectory()) {
+                // Create list of files to compress.
+                files.add(new File(arg));
             }
         }
+        if (auto && model != null) throw new IllegalArgumentException("--auto can not be used with --model");
         compress();
     }
 
     /**
-     * Compress all files currently within the files array.
+     * Compress all files currently within the files array, {@code threads} files at a time.
+     * Prints the result of every file and counts the ones that failed.
      */
     private static long compress() {
-        Huffman h = new Huffman();
+        Compressor c;
+        try {
+            c = auto ? new Adaptive() : model == null ? new Huffman() : new Huffman(Model.load(model));
+        } catch (IOException e) {
+            System.err.println("Could not load model " + model + ": " + e.getMessage());
+            failed += Math.max(1, files.size());
+            return 0;
+        }
+        Batch batch = new Batch(c, Mode.Compress, threads, shareTable, null);
 
         long start = System.currentTimeMillis();
-        for (File file : files) {
-            h.compress(file);
-        }
+        failed += batch.report(batch.run(files), System.out, System.err);
         return System.currentTimeMillis() - start;
     }
 
     /**
      * Give the user an interactive CLI mode, or execute all commands given
-     * through commandline arguments.
+     * through commandline arguments. Exits with status 1 if any file failed,
+     * and 2 if the arguments are not valid.
      * @param args - Arguments given through the commandline.
      */
     public static void main(String[] args) {
         if (args.length == 0) {
             cliMode();
         } else {
-            parseArgs(args);
+            try {
+                parseArgs(args);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
+            }
         }
+        if (failed > 0) System.exit(1);
     }
 }
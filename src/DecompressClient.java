@@ -1,6 +1,8 @@
 import no.flatline.Huffman;
+import no.flatline.Model;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -11,12 +13,17 @@ import java.util.Scanner;
  * @author Joakim Sæther
  * @author Daniel Klock
  * @author Roy Åne Sylthe
- * @version 0.1.1
+ * @version 0.2.0
  */
 public final class DecompressClient {
     private static final String printfExp = "%1$-5s %2$s %n";
 
     private static final List<File> files = new ArrayList<>();
+    private static int threads = Batch.DEFAULT_THREADS;
+    private static String model;
+    private static List<String> entries;
+    private static boolean verify;
+    private static int failed;
 
     /**
      * Give the user a interactive CLI mode.
@@ -24,6 +31,7 @@ public final class DecompressClient {
     private static void cliMode() {
         Path currentPath = Paths.get(System.getProperty("user.dir"));
         System.out.println("Welcome to FlatFile's ultimate decompression tool\u2122.");
+        Scanner scanner = new Scanner(System.in);
         do {
             System.out.println("Add files to decompress.");
             if (files.size() != 0) {
@@ -39,7 +47,6 @@ public final class DecompressClient {
                 System.out.printf(printfExp,"[" + (i + 1) + "]", filesInCurrentDir[i].getName());
             }
             System.out.printf(printfExp,"[" + (filesInCurrentDir.length + 1) + "]","decompress");
-            Scanner scanner = new Scanner(System.in);
             String input = scanner.next();
             if (input.matches("^[0-9]+$")) {
                 int inputInt = Integer.parseInt(input);
@@ -65,44 +72,75 @@ public final class DecompressClient {
 
     /**
      * Parse commandline arguments.
-     * @param args - The arguments from the CLI.
+     * Files that can not be read are kept, so that they are reported as failed.
+     * Archives are extracted into a directory.
+     * @param args - The arguments from the CLI, files, optionally -j or --threads with the number of files to
+     *             decompress at once, and -e or --entry with the name of an archive entry to extract alone.
+     *             With -m or --model, files are decompressed with a trained model, given by its file or ID.
+     *             With -t or --verify, files are only checked and nothing is written.
+     * @throws IllegalArgumentException if an option is not valid.
      */
     private static void parseArgs(String[] args) {
-        for (String arg : args) {
-            // Create list of files to decompress.
-            if (arg.matches("^.+\\..+$")) {
-                File file = new File(arg);
-                if (file.canRead()) {
-                    files.add(file);
-                }
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-j") || arg.equals("--threads")) {
+                threads = Batch.parseThreads(++i < args.length ? args[i] : null);
+            } else if (arg.startsWith("--threads=")) {
+                threads = Batch.parseThreads(arg.substring("--threads=".length()));
+            } else if (arg.equals("-m") || arg.equals("--model")) {
+                if (++i == args.length) throw new IllegalArgumentException("Missing model");
+                model = args[i];
+            } else if (arg.equals("-t") || arg.equals("--verify")) {
+                verify = true;
+            } else if (arg.equals("-e") || arg.equals("--entry")) {
+                if (++i == args.length) throw new IllegalArgumentException("Missing entry name");
+                if (entries == null) entries = new ArrayList<>();
+                entries.add(args[i]);
+            } else if (arg.matches("^.+\\..+$")) {
+                // Create list of files to decompress.
+                files.add(new File(arg));
             }
         }
         decompress();
     }
 
     /**
-     * Decompress all files currently within the files array.
+     * Decompress all files currently within the files array, {@code threads} files at a time.
+     * Prints the result of every file and counts the ones that failed.
      */
     private static long decompress() {
-        Huffman h = new Huffman();
+        Huffman h;
+        try {
+            h = model == null ? new Huffman() : new Huffman(Model.load(model));
+        } catch (IOException e) {
+            System.err.println("Could not load model " + model + ": " + e.getMessage());
+            failed += Math.max(1, files.size());
+            return 0;
+        }
+        Batch batch = new Batch(h, verify ? Mode.Verify : Mode.Decompress, threads, false, entries);
 
         long start = System.currentTimeMillis();
-        for (File file : files) {
-            h.decompress(file);
-        }
+        failed += batch.report(batch.run(files), System.out, System.err);
         return System.currentTimeMillis() - start;
     }
 
     /**
      * Give the user an interactive CLI mode, or execute all commands given
-     * through commandline arguments.
+     * through commandline arguments. Exits with status 1 if any file failed,
+     * and 2 if the arguments are not valid.
      * @param args - Arguments given through the commandline.
      */
     public static void main(String[] args) {
         if (args.length == 0) {
             cliMode();
         } else {
-            parseArgs(args);
+            try {
+                parseArgs(args);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
+            }
         }
+        if (failed > 0) System.exit(1);
     }
 }
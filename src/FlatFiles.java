@@ -0,0 +1,393 @@
+import no.flatline.Adaptive;
+import no.flatline.BlockCompressor;
+import no.flatline.Compressor;
+import no.flatline.Huffman;
+import no.flatline.LempelZiv;
+import no.flatline.LempelZivHuffman;
+import no.flatline.Model;
+import no.flatline.RangeCoder;
+import no.flatline.file.FileUtil;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compresses, decompresses or verifies files or standard input without asking anything, for
+ * scripts and pipelines such as {@code tar c dir | java FlatFiles -c | ssh host 'java FlatFiles -d | tar x'}.
+ * With no files, or a file named {@code -}, standard input is coded to standard output through
+ * large buffers. A compressed file is written next to its source with the extension of the codec
+ * appended, and a decompressed file without it, unless {@code -o} names the output. Existing
+ * files are not overwritten without {@code -f}. With {@code --append}, a file that has grown,
+ * such as a log, extends its compressed file with only what was added since it was last compressed,
+ * coded with the codec of the extension of that file.
+ *
+ * <p>The time and throughput of every input is reported on standard error, where it does not
+ * mix with coded bytes on standard output.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class FlatFiles {
+
+    private static final String STDIO = "-";
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int DEFAULT_LEVEL = 9;
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: FlatFiles [-c | -d | -t] [options] [file ...]",
+            "  -c, --compress      compress (default)",
+            "  -d, --decompress    decompress",
+            "  -t, --verify        check compressed input without writing anything",
+            "  -o, --output FILE   write to FILE, or - for standard output; only with one input",
+            "  --codec NAME        huffman (cff), lz77 (clz), lzh (clh), range (cro) or adaptive (cad)",
+            "  -1 ... -9           level: block size from 4 KB (fastest to start) to 1 MB (best, default)",
+            "  -j, --threads N     threads coding blocks",
+            "  -m, --model MODEL   code with a trained model, given by its file or ID",
+            "  -f, --force         overwrite existing output files",
+            "  -a, --append        compress only what was added to a file since its output was written",
+            "  -q, --quiet         do not report throughput",
+            "With no file, or -, standard input is coded to standard output.");
+
+    private Mode mode = Mode.Compress;
+    /* The extension of the codec, or null to pick it by file extension */
+    private String codec;
+    private int level = DEFAULT_LEVEL;
+    private int threads;
+    private String model;
+    private String output;
+    private boolean force;
+    private boolean append;
+    private boolean quiet;
+    private final List<String> inputs = new ArrayList<>();
+    private final InputStream stdin;
+    private final OutputStream stdout;
+    private final PrintStream stderr;
+    private ForkJoinPool pool;
+    private Model loadedModel;
+
+    /**
+     * Parses the command line.
+     *
+     * @param args the options and inputs.
+     * @param stdin the standard input.
+     * @param stdout the standard output.
+     * @param stderr where reports and errors are printed.
+     * @throws IllegalArgumentException if an option is not valid.
+     */
+    private FlatFiles(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) {
+        this.stdin = stdin;
+        this.stdout = stdout;
+        this.stderr = stderr;
+        boolean options = true;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!options || arg.equals(STDIO) || !arg.startsWith("-")) {
+                inputs.add(arg);
+            } else if (arg.equals("--")) {
+                options = false;
+            } else if (arg.equals("-c") || arg.equals("--compress")) {
+                mode = Mode.Compress;
+            } else if (arg.equals("-d") || arg.equals("--decompress")) {
+                mode = Mode.Decompress;
+            } else if (arg.equals("-t") || arg.equals("--verify")) {
+                mode = Mode.Verify;
+            } else if (arg.equals("-o") || arg.equals("--output")) {
+                output = value(args, ++i, "output");
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.equals("--codec")) {
+                codec = extension(value(args, ++i, "codec"));
+            } else if (arg.startsWith("--codec=")) {
+                codec = extension(arg.substring("--codec=".length()));
+            } else if (arg.matches("^-[1-9]$")) {
+                level = arg.charAt(1) - '0';
+            } else if (arg.equals("--level")) {
+                level = parseLevel(value(args, ++i, "level"));
+            } else if (arg.startsWith("--level=")) {
+                level = parseLevel(arg.substring("--level=".length()));
+            } else if (arg.equals("-j") || arg.equals("--threads")) {
+                threads = Batch.parseThreads(++i < args.length ? args[i] : null);
+            } else if (arg.startsWith("--threads=")) {
+                threads = Batch.parseThreads(arg.substring("--threads=".length()));
+            } else if (arg.equals("-m") || arg.equals("--model")) {
+                model = value(args, ++i, "model");
+            } else if (arg.equals("-f") || arg.equals("--force")) {
+                force = true;
+            } else if (arg.equals("-a") || arg.equals("--append")) {
+                append = true;
+            } else if (arg.equals("-q") || arg.equals("--quiet")) {
+                quiet = true;
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (inputs.isEmpty()) inputs.add(STDIO);
+        if (output != null && inputs.size() > 1) throw new IllegalArgumentException("--output takes a single input");
+        if (output != null && mode == Mode.Verify) throw new IllegalArgumentException("--output can not be used with --verify");
+        if (append && mode != Mode.Compress) throw new IllegalArgumentException("--append only compresses");
+        if (append && (inputs.contains(STDIO) || STDIO.equals(output))) {
+            throw new IllegalArgumentException("--append needs files to read and extend");
+        }
+        if (append && force) throw new IllegalArgumentException("--append can not be used with --force");
+        if (model != null && codec != null && !codec.equals("cff")) {
+            throw new IllegalArgumentException("--model needs the huffman codec");
+        }
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) throw new IllegalArgumentException("Missing " + name);
+        return args[i];
+    }
+
+    private static int parseLevel(String value) {
+        if (!value.matches("^[1-9]$")) throw new IllegalArgumentException("Level must be from 1 to 9, was " + value);
+        return Integer.parseInt(value);
+    }
+
+    /**
+     * Returns the extension of a codec given by its name or extension.
+     */
+    private static String extension(String name) {
+        switch (name.toLowerCase()) {
+            case "huffman":
+                return "cff";
+            case "lz77":
+                return "clz";
+            case "lzh":
+                return "clh";
+            case "range":
+                return "cro";
+            case "adaptive":
+            case "auto":
+                return "cad";
+            default:
+                Compressor.forExtension(name);
+                return name;
+        }
+    }
+
+    /**
+     * Creates the codec of an extension with the options given.
+     */
+    private BlockCompressor codec(String extension) throws IOException {
+        if (pool == null) pool = threads > 0 ? new ForkJoinPool(threads) : ForkJoinPool.commonPool();
+        BlockCompressor c;
+        switch (extension) {
+            case "cff":
+                if (model != null && loadedModel == null) loadedModel = Model.load(model);
+                c = model == null ? new Huffman(pool) : new Huffman(loadedModel, pool);
+                break;
+            case "clz":
+                c = new LempelZiv(LempelZiv.DEFAULT_WINDOW_SIZE, LempelZiv.DEFAULT_SEARCH_DEPTH, pool);
+                break;
+            case "clh":
+                c = new LempelZivHuffman(LempelZiv.DEFAULT_WINDOW_SIZE, LempelZiv.DEFAULT_SEARCH_DEPTH, pool);
+                break;
+            case "cro":
+                c = new RangeCoder(pool);
+                break;
+            case "cad":
+                c = new Adaptive(pool);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown codec " + extension);
+        }
+        /* Level 9 is the largest block size */
+        c.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE << (level - 1));
+        return c;
+    }
+
+    /**
+     * Codes every input, continuing after one fails.
+     *
+     * @return the number of inputs that failed.
+     */
+    private int run() {
+        int failed = 0;
+        for (String input : inputs) {
+            try {
+                run(input);
+            } catch (IOException | RuntimeException e) {
+                failed++;
+                stderr.println("Could not " + mode.name().toLowerCase() + " "
+                        + (input.equals(STDIO) ? "standard input" : input) + ": " + (e.getMessage() != null ? e.getMessage() : e));
+            }
+        }
+        return failed;
+    }
+
+    private void run(String input) throws IOException {
+        long start = System.nanoTime();
+        if (input.equals(STDIO)) {
+            Compressor c = codec(codec != null ? codec : "cff");
+            CountingInputStream in = new CountingInputStream(new BufferedInputStream(stdin, BUFFER_SIZE));
+            boolean toStdout = output == null || output.equals(STDIO);
+            OutputStream target = toStdout ? new CloseShieldOutputStream(stdout) : create(new File(output));
+            try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(target, BUFFER_SIZE))) {
+                CountingOutputStream decoded = mode == Mode.Verify
+                        ? new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM) : out;
+                code(c, in, decoded);
+                out.flush();
+                report("standard input", in.getByteCount(), decoded.getByteCount(), start);
+            } catch (IOException | RuntimeException e) {
+                if (!toStdout) Files.deleteIfExists(new File(output).toPath());
+                throw e;
+            }
+            return;
+        }
+
+        File src = new File(input);
+        if (!src.isFile()) throw new IOException("No such file");
+        String extension = FileUtil.getExtension(src);
+        /* A file is decompressed, and appended to, with the codec of its extension */
+        String name = codec != null ? codec
+                : mode != Mode.Compress ? extension
+                : append && output != null ? FileUtil.getExtension(new File(output))
+                : "cff";
+        BlockCompressor c = codec(name);
+        if (mode == Mode.Verify) {
+            CountingOutputStream out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+            try (InputStream in = new BufferedInputStream(new FileInputStream(src), BUFFER_SIZE)) {
+                c.decompress(in, out);
+            }
+            report(input, src.length(), out.getByteCount(), start);
+            return;
+        }
+
+        File dst;
+        if (output != null) {
+            dst = new File(output);
+        } else if (mode == Mode.Compress) {
+            dst = new File(input + "." + c.getExtension());
+        } else if (extension.equals(c.getExtension())) {
+            dst = new File(src.getParentFile(), FileUtil.getBaseName(src));
+        } else {
+            throw new IOException("Does not end in ." + c.getExtension() + ", give the output with -o");
+        }
+        if (append) {
+            long coded = c.append(src, dst);
+            if (!quiet) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                stderr.printf("Appended %d new bytes of %s to %s in %.3f s, %.1f MB/s%n", coded, input,
+                        dst.getPath(), seconds, coded / 1e6 / Math.max(seconds, 1e-9));
+            }
+            return;
+        }
+        if (output != null && output.equals(STDIO)) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(src), BUFFER_SIZE);
+                 CountingOutputStream out = new CountingOutputStream(
+                         new BufferedOutputStream(new CloseShieldOutputStream(stdout), BUFFER_SIZE))) {
+                code(c, in, out);
+                out.flush();
+                report(input, src.length(), out.getByteCount(), start);
+            }
+            return;
+        }
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            /* Opened after the input, so that only an output this run created is deleted on failure */
+            try (FileChannel out = channel(dst)) {
+                try {
+                    if (mode == Mode.Compress) c.compress(in, out);
+                    else c.decompress(in, out);
+                    report(input, src.length(), out.size(), start);
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(dst.toPath());
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void code(Compressor c, InputStream in, OutputStream out) throws IOException {
+        if (mode == Mode.Compress) c.compress(in, out);
+        else c.decompress(in, out);
+    }
+
+    /**
+     * Opens an output file, which must not exist unless overwriting is forced.
+     */
+    private FileChannel channel(File file) throws IOException {
+        Path path = file.toPath();
+        if (force) {
+            return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        if (Files.exists(path)) throw new IOException(file.getPath() + " exists, overwrite it with -f");
+        return FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    }
+
+    private OutputStream create(File file) throws IOException {
+        if (!force && file.exists()) throw new IOException(file.getPath() + " exists, overwrite it with -f");
+        return new FileOutputStream(file);
+    }
+
+    /**
+     * Prints the sizes, time and throughput of one input. The throughput is of the uncompressed bytes.
+     */
+    private void report(String name, long in, long out, long start) {
+        if (quiet) return;
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long raw = mode == Mode.Compress ? in : out;
+        long compressed = mode == Mode.Compress ? out : in;
+        String done = mode == Mode.Verify ? "Verified" : mode.name() + "ed";
+        stderr.printf("%s %s: %d -> %d bytes (%.1f%%) in %.3f s, %.1f MB/s%n", done, name, in, out,
+                raw == 0 ? 100.0 : 100.0 * compressed / raw, seconds, raw / 1e6 / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Codes the files or standard input given.
+     *
+     * @param args the options and inputs.
+     * @param stdin the standard input.
+     * @param stdout the standard output, which is flushed but not closed.
+     * @param stderr where reports and errors are printed.
+     * @return 0 if every input was coded, 1 if any failed, and 2 if the arguments are not valid.
+     */
+    static int run(String[] args, InputStream stdin, OutputStream stdout, PrintStream stderr) {
+        for (String arg : args) {
+            if (arg.equals("-h") || arg.equals("--help")) {
+                PrintStream usage = new PrintStream(new CloseShieldOutputStream(stdout), true);
+                usage.println(USAGE);
+                return 0;
+            }
+        }
+        FlatFiles flatFiles;
+        try {
+            flatFiles = new FlatFiles(args, stdin, stdout, stderr);
+        } catch (IllegalArgumentException e) {
+            stderr.println(e.getMessage());
+            stderr.println(USAGE);
+            return 2;
+        }
+        return flatFiles.run() > 0 ? 1 : 0;
+    }
+
+    /**
+     * Codes the files or standard input given. Exits with status 1 if any input failed, and 2
+     * if the arguments are not valid.
+     * @param args - The options and inputs.
+     */
+    public static void main(String[] args) {
+        int status = run(args, new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out), System.err);
+        if (status != 0) System.exit(status);
+    }
+}
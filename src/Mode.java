@@ -11,5 +11,10 @@ public enum Mode {
     /**
      * Sets the client to decompress given files.
      */
-    Decompress
+    Decompress,
+
+    /**
+     * Sets the client to check given files without writing anything.
+     */
+    Verify
 }
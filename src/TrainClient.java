@@ -0,0 +1,42 @@
+import no.flatline.Model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trains a model on sample files, for compressing small files that are too short to carry a table of their own.
+ * The model is saved in resource/models, and its ID is what {@code --model} of the other clients takes.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class TrainClient {
+
+    /**
+     * Trains and saves a model. Exits with status 1 if training fails, and 2 if no samples are given.
+     * @param args - The sample files and directories to train on.
+     */
+    public static void main(String[] args) {
+        List<Path> samples = new ArrayList<>();
+        for (String arg : args) {
+            samples.add(Paths.get(arg));
+        }
+        if (samples.isEmpty()) {
+            System.err.println("No samples given");
+            System.exit(2);
+        }
+        try {
+            Model model = Model.train(samples);
+            File file = model.save();
+            System.out.println("Trained model " + model.getName() + ", saved to " + file.getPath());
+        } catch (IOException e) {
+            System.err.println("Could not train model: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
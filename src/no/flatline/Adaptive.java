@@ -0,0 +1,149 @@
+package no.flatline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Picks a coding for every block from a cheap estimate of what it will gain, and never codes
+ * a block larger than it is. The frame type of every block records the choice.
+ *
+ * <ul>
+ *     <li>Blocks that repeat themselves are coded with {@link LempelZivHuffman}. Repeats are found by
+ *     probing a sample of the block for earlier occurrences of the same {@value #PROBE_MATCH} bytes.</li>
+ *     <li>Blocks without repeats whose byte entropy is close to 8 bits, such as media and archives,
+ *     are stored as they are, so they cost no more than the histogram and the probe.</li>
+ *     <li>Other blocks are coded with {@link Huffman}, reusing the histogram of the estimate.</li>
+ * </ul>
+ *
+ * <p>A block that still comes out larger than it is, is stored instead.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public class Adaptive extends BlockCompressor {
+
+    /* Least share of probed positions that must repeat for a block to be given to LZ77 */
+    private static final double LZ_REPEATS = 0.02;
+    /* Entropy in bits per byte from which a block without repeats is stored */
+    private static final double STORE_ENTROPY = 7.9;
+
+    /* Repeats are probed in up to PROBE_WINDOWS windows spread over the block, or in the whole of a small block */
+    private static final int PROBE_WINDOWS = 8;
+    private static final int PROBE_WINDOW_SIZE = 8 << 10;
+    private static final int PROBE_MATCH = 8;
+    private static final int HASH_BITS = 14;
+
+    private final Huffman huffman;
+    private final LempelZivHuffman lempelZiv;
+    /* Hash tables of the repeat probe, one per worker thread */
+    private final ThreadLocal<int[]> probes = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+    /**
+     * Default constructor, coding blocks on the common pool.
+     */
+    public Adaptive() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an adaptive compressor.
+     *
+     * @param pool the pool to code blocks on.
+     */
+    public Adaptive(ForkJoinPool pool) {
+        super(pool);
+        this.huffman = new Huffman(pool);
+        this.lempelZiv = new LempelZivHuffman(LempelZiv.DEFAULT_WINDOW_SIZE, LempelZiv.DEFAULT_SEARCH_DEPTH, pool);
+    }
+
+    @Override
+    public String getExtension() {
+        return "cad";
+    }
+
+    /**
+     * Sets the listener of this codec and of the codecs it hands blocks to, which report the
+     * phases of the blocks they code.
+     */
+    @Override
+    public void setListener(CodecListener listener) {
+        super.setListener(listener);
+        huffman.setListener(listener);
+        lempelZiv.setListener(listener);
+    }
+
+    @Override
+    int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException {
+        HuffmanContext context = huffman.context();
+        context.count(src, 0, len);
+        long start = System.nanoTime();
+        double repeats = repeats(src, len);
+        listener().phase(CodecListener.Phase.MATCH, System.nanoTime() - start);
+        if (repeats >= LZ_REPEATS) {
+            int type = lempelZiv.encodeBlock(src, len, payload);
+            if (payload.size() < len) return type;
+            payload.reset();
+        } else if (context.entropy(len) < STORE_ENTROPY * len) {
+            int type = context.encodeCounted(src, 0, len);
+            if (context.payload.size() < len) {
+                context.payload.writeTo(payload);
+                return type;
+            }
+        }
+        payload.write(src, 0, len);
+        return Container.STORED;
+    }
+
+    @Override
+    void decodeBlock(int type, byte[] payload, int length, byte[] dst, int rawLength) throws IOException {
+        switch (type) {
+            case Container.STORED:
+                if (length != rawLength) throw new IOException("Stored block does not match the block length");
+                System.arraycopy(payload, 0, dst, 0, length);
+                break;
+            case Container.LZ77_HUFFMAN:
+                lempelZiv.decodeBlock(type, payload, length, dst, rawLength);
+                break;
+            default:
+                huffman.decodeBlock(type, payload, length, dst, rawLength);
+        }
+    }
+
+    /**
+     * Estimates how much of a block repeats earlier parts of it.
+     *
+     * @param src the block.
+     * @param len the length of the block.
+     * @return the share of probed positions whose next {@value #PROBE_MATCH} bytes were seen before.
+     */
+    private double repeats(byte[] src, int len) {
+        int[] table = probes.get();
+        Arrays.fill(table, 0);
+        int window = len <= PROBE_WINDOWS * PROBE_WINDOW_SIZE ? len : PROBE_WINDOW_SIZE;
+        int windows = Math.min(PROBE_WINDOWS, Math.max(1, len / Math.max(1, window)));
+        int spacing = len / windows;
+        int probed = 0;
+        int repeated = 0;
+        for (int w = 0; w < windows; w++) {
+            for (int i = w * spacing, end = Math.min(w * spacing + window, len - PROBE_MATCH + 1); i < end; i++) {
+                int hash = (src[i] & 0xff | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | src[i + 3] << 24)
+                        * 0x9e3779b1 >>> (32 - HASH_BITS);
+                int candidate = table[hash] - 1;
+                table[hash] = i + 1;
+                probed++;
+                if (candidate >= 0 && matches(src, candidate, i)) repeated++;
+            }
+        }
+        return probed == 0 ? 0 : (double) repeated / probed;
+    }
+
+    private static boolean matches(byte[] src, int a, int b) {
+        for (int k = 0; k < PROBE_MATCH; k++) {
+            if (src[a + k] != src[b + k]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,425 @@
+package no.flatline;
+
+import no.flatline.file.FileUtil;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Many files packed into one file, each compressed on its own so that any of them can be
+ * extracted without decoding the others.
+ *
+ * <pre>
+ * header   magic 'F' 'F' 'A', version, flags, extension of the entry codec (UTF)
+ *          code lengths of the shared table, if {@link #SHARED_TABLE} is set
+ * entries  every entry as a complete {@link Container}
+ * index    entry count (int), then per entry its name (UTF), size, offset and
+ *          compressed size (longs) and CRC32 of the uncompressed bytes (int)
+ * trailer  offset of the index (long), magic 'F' 'F' 'A'
+ * </pre>
+ *
+ * The index is read from the end of the file, so an entry can be found and
+ * decoded with two seeks. With a shared table, the byte frequencies of all
+ * entries are counted first, and entries that gain from it are coded with one
+ * Huffman code stored once in the header instead of a code per entry.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class Archive implements Closeable {
+
+    /** The file extension of archives. */
+    public static final String EXTENSION = "cfa";
+
+    private static final byte[] MAGIC = {'F', 'F', 'A'};
+    private static final int VERSION = 1;
+    /** Flag set when the header holds a shared Huffman table. */
+    private static final int SHARED_TABLE = 1;
+    private static final int TRAILER_SIZE = 8 + MAGIC.length;
+
+    private final FileChannel channel;
+    private final Compressor codec;
+    private final Map<String, Entry> entries;
+
+    private Archive(FileChannel channel, Compressor codec, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.codec = codec;
+        this.entries = entries;
+    }
+
+    /**
+     * Packs every regular file under a directory into resource/compressed, named
+     * after the directory with {@link #EXTENSION} appended.
+     *
+     * @param dir the directory to pack.
+     * @param codec the codec to compress the entries with.
+     * @param shareTable whether to code entries with a table shared by all of them. Needs {@link Huffman}.
+     * @return the archive.
+     * @throws IOException if a file can not be read, or the archive can not be written.
+     */
+    public static File pack(File dir, Compressor codec, boolean shareTable) throws IOException {
+        if (!dir.isDirectory()) throw new FileNotFoundException(dir.getPath());
+        File archive = FileUtil.createFile("resource/compressed", dir.getName(), EXTENSION);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(archive), BlockCompressor.IO_BUFFER_SIZE)) {
+            write(dir.toPath(), out, codec, shareTable);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archive.toPath());
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Writes an archive of every regular file under a directory, in name order.
+     * Entries are named by their path relative to {@code dir}, with '/' between directories.
+     *
+     * @param dir the directory to pack.
+     * @param out the stream to write the archive to.
+     * @param codec the codec to compress the entries with.
+     * @param shareTable whether to code entries with a table shared by all of them. Needs {@link Huffman}.
+     * @throws IOException if a file can not be read, or writing fails.
+     */
+    public static void write(Path dir, OutputStream out, Compressor codec, boolean shareTable) throws IOException {
+        if (shareTable && codec.getClass() != Huffman.class) {
+            throw new IllegalArgumentException("A shared table needs the Huffman codec");
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        CountingOutputStream counter = new CountingOutputStream(out);
+        DataOutputStream dos = new DataOutputStream(counter);
+        dos.write(MAGIC);
+        dos.write(VERSION);
+        dos.write(shareTable ? SHARED_TABLE : 0);
+        dos.writeUTF(codec.getExtension());
+        if (shareTable) {
+            int[] table = CanonicalCode.lengths(Histogram.count(files, ForkJoinPool.commonPool()),
+                    CanonicalCode.MAX_LENGTH);
+            CanonicalCode.writeLengths(dos, table);
+            if (hasCode(table)) codec = new Huffman(table);
+        }
+
+        List<Entry> index = new ArrayList<>();
+        for (Path file : files) {
+            long offset = counter.getByteCount();
+            CRC32 crc = new CRC32();
+            try (CountingInputStream in = new CountingInputStream(new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(file.toFile()), BlockCompressor.bufferSize(Files.size(file))), crc))) {
+                codec.compress(in, dos);
+                String name = dir.relativize(file).toString().replace(File.separatorChar, '/');
+                index.add(new Entry(name, in.getByteCount(), offset, counter.getByteCount() - offset, (int) crc.getValue()));
+            }
+        }
+
+        long indexOffset = counter.getByteCount();
+        dos.writeInt(index.size());
+        for (Entry entry : index) {
+            dos.writeUTF(entry.name);
+            dos.writeLong(entry.size);
+            dos.writeLong(entry.offset);
+            dos.writeLong(entry.compressedSize);
+            dos.writeInt(entry.crc);
+        }
+        dos.writeLong(indexOffset);
+        dos.write(MAGIC);
+        dos.flush();
+    }
+
+    private static boolean hasCode(int[] table) {
+        for (int length : table) {
+            if (length != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens an archive and reads its index.
+     *
+     * @param file the archive.
+     * @return the open archive, which must be closed.
+     * @throws IOException if the file can not be read or is not an archive.
+     */
+    public static Archive open(File file) throws IOException {
+        return open(file, null);
+    }
+
+    /**
+     * Opens an archive and reads its index, decoding entries with the given codec if it is the
+     * codec the archive was written with. This is how entries coded with a {@link Model} are read.
+     *
+     * @param file the archive.
+     * @param codec the codec to decode entries with, or null to pick one from the archive.
+     * @return the open archive, which must be closed.
+     * @throws IOException if the file can not be read or is not an archive.
+     */
+    public static Archive open(File file, Compressor codec) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < MAGIC.length + 2 + TRAILER_SIZE) throw new IOException("File is not valid format");
+            DataInputStream header = new DataInputStream(new BufferedInputStream(new RegionInputStream(channel, 0, size)));
+            for (byte b : MAGIC) {
+                if (header.readByte() != b) throw new IOException("File is not valid format");
+            }
+            int version = header.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported archive version " + version);
+            int flags = header.readUnsignedByte();
+            String extension = header.readUTF();
+            int[] table = (flags & SHARED_TABLE) != 0 ? CanonicalCode.readLengths(header, 256) : null;
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            readFully(channel, trailer, size - TRAILER_SIZE);
+            long indexOffset = trailer.getLong(0);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (trailer.get(8 + i) != MAGIC[i]) throw new IOException("Archive has no index");
+            }
+            if (indexOffset < 0 || indexOffset > size - TRAILER_SIZE) throw new IOException("Corrupt archive index");
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new RegionInputStream(channel, indexOffset, size - TRAILER_SIZE - indexOffset)));
+            int count = in.readInt();
+            if (count < 0) throw new IOException("Corrupt archive index");
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+                if (entry.size < 0 || entry.offset < 0 || entry.compressedSize < 0
+                        || entry.offset + entry.compressedSize > indexOffset) {
+                    throw new IOException("Corrupt archive index");
+                }
+                entries.put(entry.name, entry);
+            }
+            if (codec == null || table != null || !codec.getExtension().equals(extension)) {
+                codec = codec(extension, table);
+            }
+            return new Archive(channel, codec, entries);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the codec of an extension.
+     */
+    private static Compressor codec(String extension, int[] table) throws IOException {
+        switch (extension) {
+            case "cff":
+                if (table == null || !hasCode(table)) return new Huffman();
+                try {
+                    return new Huffman(table);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt shared table", e);
+                }
+            default:
+                try {
+                    return Compressor.forExtension(extension);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+        }
+    }
+
+    /**
+     * Returns every entry, in the order they were packed.
+     *
+     * @return the entries.
+     */
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns an entry.
+     *
+     * @param name the name of the entry.
+     * @return the entry, or null if there is none by that name.
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Decompresses a single entry. Only the bytes of that entry are read.
+     * Entries may be extracted from several threads at the same time.
+     *
+     * @param entry the entry to extract.
+     * @param out the stream to write the entry to.
+     * @throws IOException if reading or writing fails, or the entry is corrupt.
+     */
+    public void extract(Entry entry, OutputStream out) throws IOException {
+        CRC32 crc = new CRC32();
+        CountingOutputStream counter = new CountingOutputStream(new CheckedOutputStream(out, crc));
+        codec.decompress(new BufferedInputStream(new RegionInputStream(channel, entry.offset, entry.compressedSize),
+                BlockCompressor.bufferSize(entry.compressedSize)), counter);
+        if (counter.getByteCount() != entry.size || (int) crc.getValue() != entry.crc) {
+            throw new IOException("Checksum mismatch in entry " + entry.name);
+        }
+    }
+
+    /**
+     * Checks every entry against its size and checksum without writing it anywhere.
+     *
+     * @throws IOException if reading fails, or an entry is corrupt.
+     */
+    public void verify() throws IOException {
+        for (Entry entry : entries.values()) {
+            extract(entry, NullOutputStream.NULL_OUTPUT_STREAM);
+        }
+    }
+
+    /**
+     * Extracts entries into a directory, recreating their directories.
+     *
+     * @param names the names of the entries to extract, or null for every entry.
+     * @param dir the directory to extract into.
+     * @throws IOException if an entry does not exist or fails to extract.
+     */
+    public void extract(Collection<String> names, Path dir) throws IOException {
+        Path root = dir.toAbsolutePath().normalize();
+        for (String name : names == null ? entries.keySet() : names) {
+            Entry entry = entries.get(name);
+            if (entry == null) throw new FileNotFoundException("No entry " + name);
+            Path target = root.resolve(name).normalize();
+            if (!target.startsWith(root) || target.equals(root)) throw new IOException("Entry outside the archive: " + name);
+            Files.createDirectories(target.getParent());
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target.toFile()),
+                    BlockCompressor.bufferSize(entry.size))) {
+                extract(entry, out);
+            }
+        }
+    }
+
+    /**
+     * Extracts an archive into its own directory in resource/decompressed, named after
+     * the archive without its extension.
+     *
+     * @param src the archive.
+     * @param names the names of the entries to extract, or null for every entry.
+     * @param codec the codec to decode entries with, as for {@link #open(File, Compressor)}.
+     * @return the directory the entries were extracted into.
+     * @throws IOException if the archive can not be read or is corrupt, or an entry can not be written.
+     */
+    public static File unpack(File src, Collection<String> names, Compressor codec) throws IOException {
+        if (!src.isFile() || !src.canRead()) throw new FileNotFoundException(src.getPath());
+        try (Archive archive = open(src, codec)) {
+            File dir = FileUtil.createDirectory("resource/decompressed", FileUtil.getBaseName(src));
+            archive.extract(names, dir.toPath());
+            return dir;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new EOFException("Unexpected end of archive");
+        }
+    }
+
+    /**
+     * A file in an archive.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final long size;
+        private final long offset;
+        private final long compressedSize;
+        private final int crc;
+
+        Entry(String name, long size, long offset, long compressedSize, int crc) {
+            this.name = name;
+            this.size = size;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.crc = crc;
+        }
+
+        /**
+         * @return the path of the file relative to the packed directory, with '/' between directories.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the uncompressed size of the file.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the position of the compressed file in the archive.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the compressed size of the file.
+         */
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return the CRC32 of the uncompressed file.
+         */
+        public int getCrc() {
+            return crc;
+        }
+    }
+
+    /**
+     * Reads a region of a file channel with positional reads, which do not move
+     * the channel position, so several regions can be read at the same time.
+     */
+    private static final class RegionInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0) return -1;
+            position += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,832 @@
+package no.flatline;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import static java.lang.Math.min;
+
+/**
+ * Base class for codecs that code their input as independent blocks in the {@link Container} format.
+ * Subclasses only code a single block; splitting the input, running the blocks on a
+ * {@link ForkJoinPool} and writing the frames in order is done here. The three overlap: the
+ * calling thread reads, the pool codes and a writer thread writes, connected by a queue of
+ * {@link #setQueueDepth tunable} depth, so a file takes about as long as the slowest of them.
+ * Blocks, payloads and frames are held in buffers from a {@link BufferPool} that are given
+ * back once the block is written, so heap use does not grow with the size of the input.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.1.0
+ * @since 1.1.0
+ */
+public abstract class BlockCompressor implements Compressor {
+
+    static final int BLOCK_SIZE = 1 << 20;
+    /** The smallest block size that can be set. */
+    public static final int MIN_BLOCK_SIZE = 1 << 12;
+    /* Largest region of the source mapped at once, a whole number of blocks. */
+    private static final long MAP_SIZE = (long) BLOCK_SIZE << 10;
+    static final int IO_BUFFER_SIZE = 1 << 20;
+    /* Smallest buffer a block is read into. It grows up to the block size as long as input keeps coming. */
+    private static final int MIN_READ_SIZE = 1 << 13;
+    /* Blocks in flight per worker thread by default. Bounds memory use while keeping every worker busy. */
+    private static final int BLOCKS_PER_WORKER = 2;
+    /* The payload of the block a worker is coding, grown to the largest payload it has coded */
+    private static final ThreadLocal<ByteArrayOutputStream> PAYLOADS =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(1 << 16));
+    /* The checksum of the block a worker is coding or decoding */
+    private static final ThreadLocal<CRC32> CRCS = ThreadLocal.withInitial(CRC32::new);
+    /* Threads that write finished blocks in order, shared by every codec */
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "flatline-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ForkJoinPool pool;
+    private BufferPool buffers = BufferPool.SHARED;
+    private int blockSize = BLOCK_SIZE;
+    /* 0 for the default of BLOCKS_PER_WORKER blocks per worker */
+    private int queueDepth;
+    /* Blocks are coded on the pool, so a listener set while coding is seen by the workers */
+    private volatile CodecListener listener = CodecListener.NONE;
+
+    /**
+     * Creates a block compressor coding blocks on the given pool.
+     *
+     * @param pool the pool to code blocks on.
+     */
+    protected BlockCompressor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void setListener(CodecListener listener) {
+        this.listener = listener == null ? CodecListener.NONE : listener;
+    }
+
+    /**
+     * Sets the size of the blocks input is split into when compressing. Smaller blocks start
+     * coding sooner and use less memory, larger blocks compress better.
+     *
+     * @param blockSize the block size, a power of two from {@link #MIN_BLOCK_SIZE} up to 1 MB.
+     * @throws IllegalArgumentException if the size is not valid.
+     */
+    public void setBlockSize(int blockSize) {
+        if (Integer.bitCount(blockSize) != 1 || blockSize < MIN_BLOCK_SIZE || blockSize > BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be a power of two from " + MIN_BLOCK_SIZE
+                    + " to " + BLOCK_SIZE + ", was " + blockSize);
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the size of the blocks input is split into when compressing.
+     *
+     * @return the block size.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets how many blocks may be read and coded ahead of the block being written.
+     * Reading stops when the queue is full until the writer catches up.
+     *
+     * @param queueDepth the number of blocks, at least 1.
+     * @throws IllegalArgumentException if the depth is less than 1.
+     */
+    public void setQueueDepth(int queueDepth) {
+        if (queueDepth < 1) throw new IllegalArgumentException("Queue depth must be at least 1, was " + queueDepth);
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Returns how many blocks may be read and coded ahead of the block being written.
+     *
+     * @return the queue depth, by default two blocks per worker of the pool.
+     */
+    public int getQueueDepth() {
+        return queueDepth();
+    }
+
+    private int queueDepth() {
+        return queueDepth > 0 ? queueDepth : pool.getParallelism() * BLOCKS_PER_WORKER;
+    }
+
+    /**
+     * Sets the pool block buffers are taken from, instead of the shared pool.
+     *
+     * @param buffers the pool.
+     */
+    void setBufferPool(BufferPool buffers) {
+        this.buffers = buffers;
+    }
+
+    /**
+     * Returns the pool block buffers are taken from.
+     *
+     * @return the pool.
+     */
+    BufferPool bufferPool() {
+        return buffers;
+    }
+
+    /**
+     * Returns the size of a buffer for a stream of a known length, so that small files are not
+     * given a buffer of {@value #IO_BUFFER_SIZE} bytes each.
+     *
+     * @param length the length of the stream.
+     * @return the length, from 1 up to {@value #IO_BUFFER_SIZE}.
+     */
+    static int bufferSize(long length) {
+        return (int) Math.max(1, min(IO_BUFFER_SIZE, length));
+    }
+
+    /**
+     * Returns the listener of this codec.
+     *
+     * @return the listener, {@link CodecListener#NONE} if none is set.
+     */
+    CodecListener listener() {
+        return listener;
+    }
+
+    /**
+     * Codes one block.
+     *
+     * @param src the block.
+     * @param len the length of the block.
+     * @param payload the stream to write the coded block to.
+     * @return the frame type of the coded block.
+     * @throws IOException if coding fails.
+     */
+    abstract int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException;
+
+    /**
+     * Decodes one block.
+     *
+     * @param type the frame type of the block.
+     * @param payload the buffer holding the coded block from its start.
+     * @param length the length of the coded block. Bytes after it in the buffer are not part of the block.
+     * @param dst the buffer to decode the block into from its start, at least {@code rawLength} long.
+     * @param rawLength the uncompressed length of the block.
+     * @throws IOException if the block is corrupt or of a type this codec does not know.
+     */
+    abstract void decodeBlock(int type, byte[] payload, int length, byte[] dst, int rawLength) throws IOException;
+
+    /**
+     * Decompresses input that does not start with the container magic.
+     *
+     * @param dis the compressed input, positioned after the first byte.
+     * @param first the first byte of the input.
+     * @param out the stream to write the decompressed bytes to.
+     * @throws IOException if the input is not in a format this codec knows.
+     */
+    void decompressOther(DataInputStream dis, byte first, OutputStream out) throws IOException {
+        throw new IOException("File is not valid format");
+    }
+
+    /**
+     * Returns the header of containers written by this codec.
+     *
+     * @return the container header.
+     */
+    Container.Header header() {
+        return new Container.Header(Container.FLAG_CHECKSUM, blockSize, 0);
+    }
+
+    /**
+     * Checks that this codec can decode a container with the given header.
+     *
+     * @param header the header read.
+     * @throws IOException if the container needs something this codec does not have.
+     */
+    void checkHeader(Container.Header header) throws IOException {
+        if (header.has(Container.FLAG_MODEL)) throw new IOException("File needs model " + Model.name(header.model));
+    }
+
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        Container.Header header = header();
+        Container.Index index = new Container.Index();
+        Container.writeHeader(out, header);
+        int blockSize = header.blockSize;
+        boolean checked = header.has(Container.FLAG_CHECKSUM);
+        try (Frames frames = new Frames(out, index)) {
+            int len;
+            do {
+                long start = System.nanoTime();
+                byte[] bytes = buffers.acquire(min(blockSize, Math.max(in.available(), MIN_READ_SIZE)));
+                try {
+                    len = readBlock(in, bytes, 0);
+                    while (len == bytes.length && len < blockSize) {
+                        byte[] larger = buffers.acquire(min(blockSize, 2 * len));
+                        System.arraycopy(bytes, 0, larger, 0, len);
+                        buffers.release(bytes);
+                        bytes = larger;
+                        len = readBlock(in, bytes, len);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    buffers.release(bytes);
+                    throw e;
+                }
+                listener.phase(CodecListener.Phase.READ, System.nanoTime() - start);
+                if (len == 0) {
+                    buffers.release(bytes);
+                    break;
+                }
+                final byte[] block = bytes;
+                final int n = len;
+                frames.submit(block, n, () -> encodeFrame(block, n, checked));
+            } while (len == blockSize);
+            frames.finish();
+        }
+        index.writeEnd(out, header);
+        out.flush();
+    }
+
+    /**
+     * Compresses a channel. A file channel is mapped from its current position to its end
+     * instead of being read, and the blocks are coded straight from the mapping.
+     */
+    @Override
+    public void compress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        if (!(in instanceof FileChannel)) {
+            Compressor.super.compress(in, out);
+            return;
+        }
+        FileChannel file = (FileChannel) in;
+        OutputStream os = new BufferedOutputStream(Channels.newOutputStream(out), IO_BUFFER_SIZE);
+        Container.Header header = header();
+        Container.Index index = new Container.Index();
+        Container.writeHeader(os, header);
+        try (Frames frames = new Frames(os, index)) {
+            long size = file.size();
+            for (long position = file.position(); position < size; position += MAP_SIZE) {
+                submitBlocks(file.map(FileChannel.MapMode.READ_ONLY, position, min(MAP_SIZE, size - position)), frames, header);
+            }
+            frames.finish();
+            file.position(size);
+        }
+        index.writeEnd(os, header);
+        os.flush();
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer, coding the blocks straight from the buffer.
+     */
+    @Override
+    public ByteBuffer compress(ByteBuffer src) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.remaining() / 2 + 64);
+        Container.Header header = header();
+        Container.Index index = new Container.Index();
+        Container.writeHeader(out, header);
+        try (Frames frames = new Frames(out, index)) {
+            submitBlocks(src.duplicate(), frames, header);
+            frames.finish();
+        }
+        index.writeEnd(out, header);
+        src.position(src.limit());
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Compresses what has been added to the end of a file since it was compressed, or last
+     * appended to, by extending the compressed file instead of compressing the whole file again.
+     * Only the new bytes are read. The full blocks of the compressed file are kept, a last block
+     * that is not full is coded again together with the new bytes, and the end frame and index
+     * are written anew after the new frames. The file is extended with the block size and
+     * settings it was written with, and if appending fails it is put back as it was.
+     *
+     * <p>The compressed file must have been written by this codec, and the source must still
+     * start with the bytes that were compressed. The last block of the compressed file is decoded
+     * and compared with the source before anything is written, which refuses a file written by
+     * another codec as well as a log that was rotated or rewritten, and a source shorter than
+     * what was compressed is refused. A compressed file that does not exist is compressed from
+     * the whole source.</p>
+     *
+     * @param src the file that has grown.
+     * @param compressed the compressed file to extend.
+     * @return the number of bytes of the source that were coded.
+     * @throws IOException if reading or writing fails, the compressed file is corrupt or was
+     *         written by another codec or with another model, or the source does not start with
+     *         the bytes compressed.
+     */
+    public long append(File src, File compressed) throws IOException {
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ)) {
+            if (!compressed.exists()) {
+                try (FileChannel out = FileChannel.open(compressed.toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                    compress(in, out);
+                }
+                return in.size();
+            }
+            try (FileChannel out = FileChannel.open(compressed.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return append(in, out);
+            }
+        }
+    }
+
+    private long append(FileChannel in, FileChannel out) throws IOException {
+        InputStream his = Channels.newInputStream(out.position(0));
+        if (Container.readByte(his) != Container.MAGIC[0]) throw new IOException("File is not valid format");
+        Container.Header header = Container.readHeader(his);
+        checkHeader(header);
+        if (header.has(Container.FLAG_MODEL) != header().has(Container.FLAG_MODEL)) {
+            throw new IOException("File was not compressed with the same model");
+        }
+        Container.Layout layout = Container.readLayout(out, header);
+        int count = layout.count();
+        long size = in.size();
+        if (size < layout.size()) throw new IOException("Source is shorter than what was compressed");
+        if (count > 0) checkLastBlock(in, out, layout, header);
+        if (size == layout.size()) return 0;
+
+        /* A last block that is not full is coded again with the new bytes after it */
+        int kept = count > 0 && layout.rawLength(count - 1) < header.blockSize ? count - 1 : count;
+        long cut = kept < count ? layout.frameOffsets[kept] : layout.end;
+        long from = layout.rawOffsets[kept];
+        Container.Index index = new Container.Index();
+        for (int i = 0; i < kept; i++) {
+            index.add(layout.rawLength(i), layout.frameLength(i));
+        }
+        ByteBuffer tail = ByteBuffer.allocate((int) (out.size() - cut));
+        Container.readFully(out, tail, cut);
+
+        out.truncate(cut);
+        out.position(cut);
+        OutputStream os = new BufferedOutputStream(Channels.newOutputStream(out), IO_BUFFER_SIZE);
+        try {
+            try (Frames frames = new Frames(os, index)) {
+                for (long position = from; position < size; position += MAP_SIZE) {
+                    submitBlocks(in.map(FileChannel.MapMode.READ_ONLY, position, min(MAP_SIZE, size - position)), frames, header);
+                }
+                frames.finish();
+            }
+            index.writeEnd(os, header);
+            os.flush();
+        } catch (IOException | RuntimeException e) {
+            out.truncate(cut);
+            tail.flip();
+            while (tail.hasRemaining()) {
+                out.write(tail, cut + tail.position());
+            }
+            throw e;
+        }
+        return size - from;
+    }
+
+    /**
+     * Decodes the last block of a compressed file and checks that the source still holds it.
+     * A file this codec can not decode, such as one written by another codec, fails here
+     * before anything is written to it.
+     */
+    private void checkLastBlock(FileChannel in, FileChannel out, Container.Layout layout, Container.Header header)
+            throws IOException {
+        int last = layout.count() - 1;
+        ByteBuffer frame = ByteBuffer.allocate(Math.min(Container.MAX_FRAME_HEADER, layout.frameLength(last)));
+        Container.readFully(out, frame, layout.frameOffsets[last]);
+        InputStream fis = new ByteArrayInputStream(frame.array());
+        int type = Container.readByte(fis);
+        int rawLength = Container.readVarInt(fis);
+        int length = Container.readVarInt(fis);
+        if (header.has(Container.FLAG_CHECKSUM)) Container.readInt(fis);
+        Container.checkFrame(header, rawLength, length);
+        long payloadOffset = layout.frameOffsets[last] + frame.capacity() - fis.available();
+        if (payloadOffset + length != layout.frameOffsets[last] + layout.frameLength(last)) {
+            throw new IOException("Corrupt block index");
+        }
+        if (rawLength != layout.rawLength(last)) throw new IOException("Corrupt block index");
+
+        byte[] payload = buffers.acquire(length);
+        byte[] decoded = buffers.acquire(rawLength);
+        byte[] source = buffers.acquire(rawLength);
+        try {
+            Container.readFully(out, ByteBuffer.wrap(payload, 0, length), payloadOffset);
+            try {
+                decodeBlock(type, payload, length, decoded, rawLength);
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("File can not be appended to with this codec: " + e.getMessage(), e);
+            }
+            Container.readFully(in, ByteBuffer.wrap(source, 0, rawLength), layout.rawOffsets[last]);
+            for (int i = 0; i < rawLength; i++) {
+                if (decoded[i] != source[i]) throw new IOException("Source does not start with what was compressed");
+            }
+        } finally {
+            buffers.release(payload);
+            buffers.release(decoded);
+            buffers.release(source);
+        }
+    }
+
+    /**
+     * Splits the remaining bytes of a buffer into blocks and submits them for coding.
+     *
+     * @param src the bytes to code.
+     * @param frames the frame queue to submit the blocks to.
+     * @param header the header of the container, which gives the block size and whether frames have checksums.
+     * @throws IOException if writing a finished frame fails.
+     */
+    private void submitBlocks(ByteBuffer src, Frames frames, Container.Header header) throws IOException {
+        int blockSize = header.blockSize;
+        boolean checked = header.has(Container.FLAG_CHECKSUM);
+        for (int off = src.position(); off < src.limit(); off += blockSize) {
+            final ByteBuffer block = src.duplicate();
+            block.limit(min(off + blockSize, src.limit()));
+            block.position(off);
+            final int n = block.remaining();
+            frames.submit(null, n, () -> {
+                byte[] bytes = buffers.acquire(n);
+                try {
+                    block.get(bytes, 0, n);
+                    return encodeFrame(bytes, n, checked);
+                } finally {
+                    buffers.release(bytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Codes one block into a complete frame, with the checksum of the block if asked for. The payload is
+     * coded into a buffer of the worker thread, and the frame is put together in a pooled buffer.
+     *
+     * @param bytes the block.
+     * @param len the length of the block.
+     * @param checked whether the frame has a checksum.
+     * @return the frame of the block.
+     * @throws IOException if coding fails.
+     */
+    private Chunk encodeFrame(byte[] bytes, int len, boolean checked) throws IOException {
+        ByteArrayOutputStream payload = PAYLOADS.get();
+        payload.reset();
+        long start = System.nanoTime();
+        int type = encodeBlock(bytes, len, payload);
+        listener.blockCompressed(len, payload.size(), System.nanoTime() - start);
+
+        Chunk frame = new Chunk(buffers.acquire(payload.size() + Container.MAX_FRAME_HEADER));
+        Container.writeFrame(frame, type, len, payload.size());
+        if (checked) Container.writeInt(frame, Container.checksum(CRCS.get(), bytes, 0, len));
+        payload.writeTo(frame);
+        return frame;
+    }
+
+    /**
+     * Decompresses the block container, or hands other input to {@link #decompressOther}.
+     */
+    @Override
+    public void decompress(InputStream in, OutputStream out) throws IOException {
+        DataInputStream dis = new DataInputStream(in instanceof BufferedInputStream || in instanceof ByteArrayInputStream
+                ? in : new BufferedInputStream(in, IO_BUFFER_SIZE));
+        byte first = dis.readByte();
+        if (first == Container.MAGIC[0]) {
+            decompressBlocks(dis, out);
+        } else {
+            decompressOther(dis, first, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Decompresses the block container. Frames are read in order and decoded in parallel,
+     * and every decoded block is checked against the checksum of its frame.
+     *
+     * @param dis the container, positioned after the first magic byte.
+     * @param out the stream to write the decompressed bytes to.
+     * @throws IOException if reading or writing fails, or the input is corrupt.
+     */
+    private void decompressBlocks(DataInputStream dis, OutputStream out) throws IOException {
+        Container.Header header = Container.readHeader(dis);
+        checkHeader(header);
+        final boolean checked = header.has(Container.FLAG_CHECKSUM);
+        try (Frames frames = new Frames(out)) {
+            int type;
+            long start = System.nanoTime();
+            while ((type = Container.readByte(dis)) != Container.END) {
+                final int frameType = type;
+                final int rawLength = Container.readVarInt(dis);
+                final int length = Container.readVarInt(dis);
+                final int checksum = checked ? Container.readInt(dis) : 0;
+                Container.checkFrame(header, rawLength, length);
+                final byte[] payload = buffers.acquire(length);
+                try {
+                    dis.readFully(payload, 0, length);
+                } catch (IOException | RuntimeException e) {
+                    buffers.release(payload);
+                    throw e;
+                }
+                listener.phase(CodecListener.Phase.READ, System.nanoTime() - start);
+                frames.submit(payload, rawLength, () -> {
+                    Chunk block = new Chunk(buffers.acquire(rawLength));
+                    try {
+                        decodeChecked(frameType, payload, length, block.bytes, rawLength, checked, checksum);
+                    } catch (IOException | RuntimeException e) {
+                        buffers.release(block.bytes);
+                        throw e;
+                    }
+                    block.length = rawLength;
+                    return block;
+                });
+                start = System.nanoTime();
+            }
+            frames.finish();
+        }
+    }
+
+    /**
+     * Decodes one block and checks it against the checksum of its frame.
+     *
+     * @param type the frame type of the block.
+     * @param payload the buffer holding the coded block from its start.
+     * @param length the length of the coded block.
+     * @param dst the buffer to decode the block into, at least {@code rawLength} long.
+     * @param rawLength the uncompressed length of the block.
+     * @param checked whether the frame has a checksum.
+     * @param checksum the checksum of the frame.
+     * @throws IOException if the block is corrupt or of a type this codec does not know.
+     */
+    void decodeChecked(int type, byte[] payload, int length, byte[] dst, int rawLength, boolean checked, int checksum)
+            throws IOException {
+        long start = System.nanoTime();
+        decodeBlock(type, payload, length, dst, rawLength);
+        if (checked && Container.checksum(CRCS.get(), dst, 0, rawLength) != checksum) {
+            throw new IOException("Block checksum mismatch");
+        }
+        listener.blockDecompressed(rawLength, length, System.nanoTime() - start);
+    }
+
+    /**
+     * Reads until {@code buf} is full or the stream ends.
+     *
+     * @param in the stream to read from.
+     * @param buf the buffer to fill.
+     * @param len the number of bytes already in the buffer.
+     * @return the number of bytes in the buffer, less than its length only at the end of the stream.
+     * @throws IOException if reading fails.
+     */
+    static int readBlock(InputStream in, byte[] buf, int len) throws IOException {
+        int n;
+        while (len < buf.length && (n = in.read(buf, len, buf.length - len)) > 0) {
+            len += n;
+        }
+        return len;
+    }
+
+    /**
+     * Runs block tasks on the pool and writes their results in submission order on a writer
+     * thread, so that reading the next blocks, coding blocks and writing finished ones all
+     * overlap. Blocks that have been submitted but not written wait in a queue of
+     * {@link #getQueueDepth()} blocks, and submitting more waits until the writer has caught up,
+     * which bounds memory use. A single block is written on the calling thread without
+     * starting the writer. When compressing, every frame written is added to the index of the container.
+     * Closing discards any block that has not been written and waits for the writer to stop.
+     *
+     * <p>The input buffer of a block is given back to the pool when its task is done with it,
+     * and its result when it has been written or discarded.</p>
+     */
+    private final class Frames implements Closeable {
+
+        private final OutputStream out;
+        private final Container.Index index;
+        private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(queueDepth());
+        /* Marks the end of the queue */
+        private final Pending end = new Pending(null, 0);
+        /* The first block, held back until a second one shows that the writer is needed */
+        private Pending first;
+        private Future<?> writer;
+        /* The first error of the writer, after which it only discards what it takes */
+        private volatile Throwable failure;
+
+        Frames(OutputStream out) {
+            this(out, null);
+        }
+
+        Frames(OutputStream out, Container.Index index) {
+            this.out = out;
+            this.index = index;
+        }
+
+        /**
+         * Submits a block task.
+         *
+         * @param input the pooled buffer the task reads, given back when it is done, or null.
+         * @param rawLength the uncompressed length of the block.
+         * @param task the task, which returns a pooled chunk.
+         * @throws IOException if the writer has failed.
+         */
+        void submit(byte[] input, int rawLength, Callable<Chunk> task) throws IOException {
+            if (failure != null) {
+                if (input != null) buffers.release(input);
+                rethrow();
+            }
+            Pending block = new Pending(input, rawLength);
+            block.start(task);
+            if (writer == null) {
+                if (first == null) {
+                    first = block;
+                    return;
+                }
+                queue.add(first);
+                first = null;
+                writer = WRITERS.submit(this::drain);
+            }
+            put(block);
+        }
+
+        void finish() throws IOException {
+            if (writer == null) {
+                if (first != null) write(first);
+                first = null;
+                return;
+            }
+            put(end);
+            await();
+            if (failure != null) rethrow();
+        }
+
+        /**
+         * Writes blocks as they are taken from the queue, until the end is taken.
+         */
+        private void drain() {
+            try {
+                for (Pending block; (block = queue.take()) != end; ) {
+                    if (failure != null) {
+                        block.discard();
+                        continue;
+                    }
+                    try {
+                        write(block);
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (failure == null) failure = new InterruptedIOException("Writer interrupted");
+            }
+        }
+
+        private void write(Pending block) throws IOException {
+            Chunk result = join(block.task);
+            try {
+                long start = System.nanoTime();
+                out.write(result.bytes, 0, result.length);
+                listener.phase(CodecListener.Phase.WRITE, System.nanoTime() - start);
+                if (index != null) index.add(block.rawLength, result.length);
+            } finally {
+                buffers.release(result.bytes);
+            }
+        }
+
+        private void put(Pending block) throws IOException {
+            try {
+                queue.put(block);
+            } catch (InterruptedException e) {
+                block.discard();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        }
+
+        /**
+         * Waits for the writer to stop.
+         */
+        private void await() throws IOException {
+            try {
+                writer.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            } catch (ExecutionException e) {
+                if (failure == null) failure = e.getCause();
+            }
+        }
+
+        private void rethrow() throws IOException {
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+            throw new IOException(failure);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (first != null) first.discard();
+            first = null;
+            if (writer == null || writer.isDone()) return;
+            if (failure == null) failure = new IOException("Closed before all blocks were written");
+            for (Pending block; (block = queue.poll()) != null; ) {
+                block.discard();
+            }
+            queue.add(end);
+            await();
+        }
+    }
+
+    /**
+     * A submitted block task and the length of the block it codes. Either the task claims
+     * the block and runs, or discarding claims it first and the task does nothing, so the
+     * buffers of a block are given back exactly once whichever comes first.
+     */
+    private final class Pending {
+
+        /* The pooled buffer the task reads, or null */
+        private final byte[] input;
+        final int rawLength;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        /* Null for the end of the queue */
+        ForkJoinTask<Chunk> task;
+
+        Pending(byte[] input, int rawLength) {
+            this.input = input;
+            this.rawLength = rawLength;
+        }
+
+        void start(Callable<Chunk> work) {
+            task = pool.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) return null;
+                try {
+                    return work.call();
+                } finally {
+                    if (input != null) buffers.release(input);
+                }
+            });
+        }
+
+        /**
+         * Gives back the buffers of a block that will not be written, waiting for its task if it
+         * is already running.
+         */
+        void discard() {
+            if (task == null) return;
+            if (claimed.compareAndSet(false, true)) {
+                task.cancel(false);
+                if (input != null) buffers.release(input);
+                return;
+            }
+            try {
+                Chunk result = task.join();
+                if (result != null) buffers.release(result.bytes);
+            } catch (RuntimeException e) {
+                // the block failed, and its error is not needed
+            }
+        }
+    }
+
+    /**
+     * A pooled buffer and the length of its contents. Frames are written into it as a stream.
+     */
+    private static final class Chunk extends OutputStream {
+
+        final byte[] bytes;
+        int length;
+
+        Chunk(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void write(int b) {
+            bytes[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+    }
+
+    /**
+     * Waits for a block task, unwrapping the I/O error it failed with.
+     *
+     * @param task the task to wait for.
+     * @return the result of the task.
+     * @throws IOException if the task failed with an I/O error.
+     */
+    private static Chunk join(ForkJoinTask<Chunk> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+}
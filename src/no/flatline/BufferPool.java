@@ -0,0 +1,167 @@
+package no.flatline;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable buffers for blocks, so that coding a large input does not allocate a new block
+ * buffer, payload and frame for every block. Buffers come in size classes of powers of two
+ * from {@value #MIN_SIZE} bytes up to {@value #MAX_SIZE}, and a released buffer waits in its
+ * class to be acquired again. Larger buffers are not pooled. The free buffers of all classes
+ * together are kept under a limit, and a buffer released when the pool is at its limit is
+ * dropped, so an idle pool never holds more than that. The shared pool keeps at most
+ * {@value #DEFAULT_RETAINED_BYTES} bytes, or an eighth of the heap if that is less, which is
+ * enough for the blocks of a few codecs in flight. The {@value #RETAINED_PROPERTY} system
+ * property sets another limit in bytes, and 0 turns pooling off.
+ *
+ * <p>The buffers are heap arrays, not direct buffers. Every codec reads and writes blocks as
+ * byte arrays, and Java 8 has no array view of direct memory, so a direct buffer would have to
+ * be copied into an array for every stage. Reusing arrays keeps the heap just as flat.</p>
+ *
+ * <p>In debug mode every acquired buffer is recorded with the stack trace of where it was
+ * acquired until it is released, so that {@link #leaks()} can tell which buffers were never
+ * given back, and releasing a buffer twice or one the pool did not hand out fails. The shared
+ * pool is in debug mode when the {@value #DEBUG_PROPERTY} system property is {@code true}, and
+ * then reports its leaks on standard error when the JVM exits.</p>
+ *
+ * <p>A pool is thread safe. A buffer may be released on another thread than the one that
+ * acquired it.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class BufferPool {
+
+    static final String DEBUG_PROPERTY = "flatline.buffers.debug";
+    static final String RETAINED_PROPERTY = "flatline.buffers.retained";
+    static final int MIN_SIZE = 1 << 12;
+    static final int MAX_SIZE = 1 << 21;
+    static final long DEFAULT_RETAINED_BYTES = 1 << 26;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    /** The pool shared by every codec. */
+    static final BufferPool SHARED = new BufferPool(
+            Math.max(0, Long.getLong(RETAINED_PROPERTY, Math.min(DEFAULT_RETAINED_BYTES, Runtime.getRuntime().maxMemory() / 8))),
+            Boolean.getBoolean(DEBUG_PROPERTY));
+
+    static {
+        if (SHARED.debug) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (Throwable leak : SHARED.leaks()) {
+                    leak.printStackTrace();
+                }
+            }, "flatline-leaks"));
+        }
+    }
+
+    private final boolean debug;
+    private final long maxRetained;
+    private final List<ConcurrentLinkedQueue<byte[]>> free = new ArrayList<>(CLASSES);
+    /* Bytes of the free buffers of every class */
+    private final AtomicLong retained = new AtomicLong();
+    /* Where every buffer that is out was acquired, in debug mode */
+    private final Map<byte[], Throwable> leased = new IdentityHashMap<>();
+
+    /**
+     * Creates a pool keeping at most {@value #DEFAULT_RETAINED_BYTES} bytes of free buffers.
+     *
+     * @param debug whether to record where buffers are acquired and check that they are released once.
+     */
+    BufferPool(boolean debug) {
+        this(DEFAULT_RETAINED_BYTES, debug);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxRetained the most bytes of free buffers the pool keeps, 0 to keep none.
+     * @param debug whether to record where buffers are acquired and check that they are released once.
+     * @throws IllegalArgumentException if the limit is negative.
+     */
+    BufferPool(long maxRetained, boolean debug) {
+        if (maxRetained < 0) throw new IllegalArgumentException("Negative limit " + maxRetained);
+        this.maxRetained = maxRetained;
+        this.debug = debug;
+        for (int c = 0; c < CLASSES; c++) {
+            free.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Returns a buffer of at least the given size. Its contents are undefined.
+     *
+     * @param size the smallest size of the buffer.
+     * @return the buffer, whose length is the size rounded up to its size class.
+     */
+    byte[] acquire(int size) {
+        if (size < 0) throw new IllegalArgumentException("Negative size " + size);
+        int c = sizeClass(size);
+        byte[] buf;
+        if (c >= CLASSES) {
+            buf = new byte[size];
+        } else if ((buf = free.get(c).poll()) != null) {
+            retained.addAndGet(-buf.length);
+        } else {
+            buf = new byte[MIN_SIZE << c];
+        }
+        if (debug) {
+            synchronized (leased) {
+                leased.put(buf, new Throwable("Buffer of " + buf.length + " bytes acquired here was not released"));
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * Gives a buffer back to the pool. It must not be used after.
+     *
+     * @param buf a buffer acquired from this pool.
+     * @throws IllegalStateException in debug mode, if the buffer is not out of this pool.
+     */
+    void release(byte[] buf) {
+        if (debug) {
+            synchronized (leased) {
+                if (leased.remove(buf) == null) throw new IllegalStateException("Buffer was not acquired from the pool");
+            }
+        }
+        int c = sizeClass(buf.length);
+        if (c >= CLASSES || buf.length != MIN_SIZE << c) return;
+        if (retained.addAndGet(buf.length) <= maxRetained) {
+            free.get(c).offer(buf);
+        } else {
+            retained.addAndGet(-buf.length);
+        }
+    }
+
+    /**
+     * Returns the bytes of free buffers the pool holds.
+     *
+     * @return the retained bytes, at most the limit of the pool.
+     */
+    long retained() {
+        return retained.get();
+    }
+
+    /**
+     * Returns where every buffer that has not been released was acquired. Only buffers
+     * acquired in debug mode are tracked.
+     *
+     * @return a throwable with the stack trace of the acquisition of every buffer that is out.
+     */
+    List<Throwable> leaks() {
+        synchronized (leased) {
+            return new ArrayList<>(leased.values());
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+}
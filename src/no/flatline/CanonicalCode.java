@@ -0,0 +1,150 @@
+package no.flatline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Canonical prefix codes. Given only the code length of every symbol, codes are assigned
+ * in order of length, and in symbol order within a length. The decoder can then rebuild
+ * the exact same codes from the lengths alone, so only the lengths need to be stored.
+ *
+ * <p>Lengths are capped at {@link #MAX_LENGTH} bits, which keeps decoding tables small.
+ * A table of lengths is stored as a varint holding the number of symbols up to the last
+ * used one and the packing mode, followed by either</p>
+ * <ul>
+ *     <li>one 4-bit length per symbol, two to a byte, high nibble first, or</li>
+ *     <li>runs of equal lengths, one byte per run of up to 16 symbols, with the length
+ *     in the high nibble and the run length minus one in the low nibble,</li>
+ * </ul>
+ * <p>whichever is shorter.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class CanonicalCode {
+
+    /** Longest code assigned by {@link #lengths(long[], int)} with the default limit. */
+    static final int MAX_LENGTH = 15;
+
+    private static final int PACKED = 0;
+    private static final int RUNS = 1;
+
+    private CanonicalCode() {}
+
+    /**
+     * Computes optimal code lengths of at most {@code limit} bits with the package-merge algorithm,
+     * as described at {@link CodeBuilder#lengths}. A symbol that is used alone is given a length of 1.
+     *
+     * @param freq the frequency of every symbol.
+     * @param limit the longest code allowed.
+     * @return the code length of every symbol, 0 for unused symbols.
+     * @throws IllegalArgumentException if more than {@code 2^limit} symbols are used.
+     */
+    static int[] lengths(final long[] freq, final int limit) {
+        return new CodeBuilder(freq.length, limit).lengths(freq);
+    }
+
+    /**
+     * Writes a table of code lengths, packed or run-length coded, whichever is shorter.
+     *
+     * @param out the stream to write to.
+     * @param lengths the code length of every symbol, at most {@link #MAX_LENGTH}.
+     * @throws IOException if writing fails.
+     */
+    static void writeLengths(final OutputStream out, final int[] lengths) throws IOException {
+        int n = lengths.length;
+        while (n > 0 && lengths[n - 1] == 0) {
+            n--;
+        }
+        int runs = 0;
+        for (int i = 0; i < n; ) {
+            int run = 1;
+            while (run < 16 && i + run < n && lengths[i + run] == lengths[i]) {
+                run++;
+            }
+            runs++;
+            i += run;
+        }
+        if (runs < (n + 1) / 2) {
+            Container.writeVarInt(out, n << 1 | RUNS);
+            for (int i = 0; i < n; ) {
+                int run = 1;
+                while (run < 16 && i + run < n && lengths[i + run] == lengths[i]) {
+                    run++;
+                }
+                out.write(lengths[i] << 4 | (run - 1));
+                i += run;
+            }
+        } else {
+            Container.writeVarInt(out, n << 1 | PACKED);
+            for (int i = 0; i < n; i += 2) {
+                out.write(lengths[i] << 4 | (i + 1 < n ? lengths[i + 1] : 0));
+            }
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeLengths(OutputStream, int[])}.
+     *
+     * @param in the stream to read from.
+     * @param symbols the size of the alphabet.
+     * @return the code length of every symbol.
+     * @throws IOException if reading fails or the table is corrupt.
+     */
+    static int[] readLengths(final InputStream in, final int symbols) throws IOException {
+        final int header = Container.readVarInt(in);
+        final int n = header >>> 1;
+        if (n > symbols) throw new IOException("Corrupt code length table");
+        final int[] lengths = new int[symbols];
+        if ((header & 1) == RUNS) {
+            for (int i = 0; i < n; ) {
+                final int b = Container.readByte(in);
+                final int run = (b & 15) + 1;
+                if (run > n - i) throw new IOException("Corrupt code length table");
+                Arrays.fill(lengths, i, i + run, b >>> 4);
+                i += run;
+            }
+        } else {
+            for (int i = 0; i < n; i += 2) {
+                final int b = Container.readByte(in);
+                lengths[i] = b >>> 4;
+                if (i + 1 < n) lengths[i + 1] = b & 15;
+            }
+        }
+        return lengths;
+    }
+
+    /**
+     * Assigns canonical codes.
+     *
+     * @param lengths the code length of every symbol, 0 for unused symbols.
+     * @return the code of every symbol, right aligned.
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code.
+     */
+    static long[] codes(final int[] lengths) {
+        return new CodeBuilder(lengths.length, MAX_LENGTH).codes(lengths);
+    }
+
+    /**
+     * Returns a decoder for the canonical codes of a table of lengths, or null if no symbol is used.
+     *
+     * @param lengths the code length of every symbol.
+     * @return a decoder for the codes, or null if no symbol is used.
+     * @throws IOException if the lengths do not describe a prefix code.
+     */
+    static HuffmanDecoder decoder(final int[] lengths) throws IOException {
+        for (int length : lengths) {
+            if (length != 0) {
+                try {
+                    return new HuffmanDecoder(codes(lengths), lengths);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Corrupt code length table", e);
+                }
+            }
+        }
+        return null;
+    }
+}
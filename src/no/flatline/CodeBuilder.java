@@ -0,0 +1,169 @@
+package no.flatline;
+
+import java.util.Arrays;
+
+/**
+ * Builds length-limited canonical codes in flat arrays that are kept between calls, so that
+ * coding many blocks on one thread builds its codes without allocating.
+ * A builder is not thread safe, and the arrays it returns are overwritten by the next call.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class CodeBuilder {
+
+    private final int symbols;
+    private final int limit;
+    /* Symbols are sorted by frequency as one long each, with the symbol in the low bits to break ties */
+    private final int symbolBits;
+    private final long maxFreq;
+
+    private final int[] lengths;
+    private final long[] codes;
+    private final long[] sorted;
+    private final int[] order;
+    private final long[] leaves;
+    private final long[] weights;
+    private final long[] merged;
+    /* The kind of every item on every level, one stride per level */
+    private final int stride;
+    private final int[] kinds;
+    private final int[] count = new int[64];
+    private final long[] next = new long[64];
+
+    /**
+     * Creates a builder.
+     *
+     * @param symbols the size of the alphabet.
+     * @param limit the longest code {@link #lengths} may assign.
+     */
+    CodeBuilder(final int symbols, final int limit) {
+        if (symbols < 1 || limit < 1) throw new IllegalArgumentException("Alphabet and code length must be positive");
+        this.symbols = symbols;
+        this.limit = limit;
+        this.symbolBits = 32 - Integer.numberOfLeadingZeros(symbols - 1);
+        this.maxFreq = Long.MAX_VALUE >>> symbolBits;
+        this.lengths = new int[symbols];
+        this.codes = new long[symbols];
+        this.sorted = new long[symbols];
+        this.order = new int[symbols];
+        this.leaves = new long[symbols];
+        this.stride = 2 * symbols;
+        this.weights = new long[stride];
+        this.merged = new long[stride];
+        this.kinds = new int[limit * stride];
+    }
+
+    /**
+     * Computes optimal code lengths of at most the builder's limit with the package-merge algorithm.
+     * Symbols are sorted by frequency, and for every level from the limit up to 1 the cheapest
+     * pairs of the level below are packaged and merged with the symbols. The length of a symbol is
+     * the number of levels it is chosen in when the {@code 2n - 2} cheapest items of the top level
+     * are taken. Within any level the chosen packages are a prefix, so the choice can be followed
+     * down level by level without keeping track of what each package holds.
+     *
+     * <p>A symbol that is used alone is given a length of 1.</p>
+     *
+     * @param freq the frequency of every symbol, one per symbol of the alphabet.
+     * @return the code length of every symbol, 0 for unused symbols.
+     * @throws IllegalArgumentException if more than {@code 2^limit} symbols are used.
+     */
+    int[] lengths(final long[] freq) {
+        if (freq.length != symbols) throw new IllegalArgumentException("Expected " + symbols + " frequencies");
+        Arrays.fill(lengths, 0);
+        int n = 0;
+        for (int s = 0; s < symbols; s++) {
+            if (freq[s] > 0) {
+                if (freq[s] > maxFreq) throw new IllegalArgumentException("Frequency too large: " + freq[s]);
+                sorted[n++] = freq[s] << symbolBits | s;
+            }
+        }
+        if (n == 0) return lengths;
+        if (n == 1) {
+            lengths[(int) sorted[0] & (1 << symbolBits) - 1] = 1;
+            return lengths;
+        }
+        if (limit < 31 && n > 1 << limit) throw new IllegalArgumentException("Too many symbols for code length " + limit);
+        Arrays.sort(sorted, 0, n);
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) sorted[i] & (1 << symbolBits) - 1;
+            leaves[i] = sorted[i] >>> symbolBits;
+        }
+
+        /* kinds[level * stride + i] is the symbol index of the i-th cheapest item on a level, or -1 for a package */
+        long[] below = leaves;
+        long[] level = weights;
+        int width = n;
+        for (int i = 0; i < n; i++) {
+            kinds[(limit - 1) * stride + i] = i;
+        }
+        for (int depth = limit - 2; depth >= 0; depth--) {
+            final int packages = width / 2;
+            final int kind = depth * stride;
+            int leaf = 0;
+            int pkg = 0;
+            for (int i = 0; i < n + packages; i++) {
+                final long pkgWeight = pkg < packages ? below[2 * pkg] + below[2 * pkg + 1] : Long.MAX_VALUE;
+                if (leaf < n && leaves[leaf] <= pkgWeight) {
+                    level[i] = leaves[leaf];
+                    kinds[kind + i] = leaf++;
+                } else {
+                    level[i] = pkgWeight;
+                    kinds[kind + i] = -1;
+                    pkg++;
+                }
+            }
+            width = n + packages;
+            below = level;
+            level = level == weights ? merged : weights;
+        }
+
+        int take = 2 * n - 2;
+        for (int depth = 0; depth < limit && take > 0; depth++) {
+            int packages = 0;
+            for (int i = depth * stride, end = i + take; i < end; i++) {
+                if (kinds[i] >= 0) {
+                    lengths[order[kinds[i]]]++;
+                } else {
+                    packages++;
+                }
+            }
+            take = 2 * packages;
+        }
+        return lengths;
+    }
+
+    /**
+     * Assigns canonical codes.
+     *
+     * @param lengths the code length of every symbol of the alphabet, 0 for unused symbols.
+     * @return the code of every symbol, right aligned.
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code.
+     */
+    long[] codes(final int[] lengths) {
+        if (lengths.length != symbols) throw new IllegalArgumentException("Expected " + symbols + " code lengths");
+        int maxLength = 0;
+        for (int length : lengths) {
+            if (length < 0 || length > 63) throw new IllegalArgumentException("Invalid code length " + length);
+            maxLength = Math.max(maxLength, length);
+        }
+        Arrays.fill(count, 0);
+        for (int length : lengths) {
+            count[length]++;
+        }
+        count[0] = 0;
+        long code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + count[length - 1]) << 1;
+            next[length] = code;
+            if (length < 63 && code + count[length] > 1L << length) {
+                throw new IllegalArgumentException("Code lengths are oversubscribed");
+            }
+        }
+        for (int s = 0; s < symbols; s++) {
+            codes[s] = lengths[s] != 0 ? next[lengths[s]]++ : 0;
+        }
+        return codes;
+    }
+}
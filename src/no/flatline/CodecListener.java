@@ -0,0 +1,64 @@
+package no.flatline;
+
+/**
+ * Told about the work of a codec as it happens, to find out where the time of a job goes.
+ * Blocks are coded on several threads at once, so every method may be called from any thread
+ * and must be cheap; {@link CodecMetrics} only adds to counters.
+ *
+ * <p>Block times are the time spent coding a block on a worker. Phases break the time of a
+ * block down as far as the codec knows it, except for {@link Phase#READ} and {@link Phase#WRITE},
+ * which are the time the codec waited on its input and output.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public interface CodecListener {
+
+    /** A listener that ignores everything. */
+    CodecListener NONE = new CodecListener() {};
+
+    /**
+     * The parts of coding a block that are timed.
+     */
+    enum Phase {
+        /** Finding repeats to code as matches. */
+        MATCH,
+        /** Counting the symbols of a block. */
+        COUNT,
+        /** Building the codes of a block from its counts. */
+        BUILD,
+        /** Writing the symbols of a block with its codes. */
+        ENCODE,
+        /** Waiting for input. */
+        READ,
+        /** Waiting for output to be written. */
+        WRITE
+    }
+
+    /**
+     * Called when a block has been compressed.
+     *
+     * @param rawLength the uncompressed length of the block.
+     * @param codedLength the length of its payload.
+     * @param nanos the time spent coding it.
+     */
+    default void blockCompressed(int rawLength, int codedLength, long nanos) {}
+
+    /**
+     * Called when a block has been decompressed and checked.
+     *
+     * @param rawLength the uncompressed length of the block.
+     * @param codedLength the length of its payload.
+     * @param nanos the time spent decoding it.
+     */
+    default void blockDecompressed(int rawLength, int codedLength, long nanos) {}
+
+    /**
+     * Called when a phase of the work is done.
+     *
+     * @param phase the phase.
+     * @param nanos the time it took.
+     */
+    default void phase(Phase phase, long nanos) {}
+}
@@ -0,0 +1,184 @@
+package no.flatline;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the blocks, bytes and time of everything a codec does, in counters that many worker
+ * threads can add to without contending. Give it to {@link Compressor#setListener}, and read it
+ * from code or, once {@link #register registered}, from any JMX console.
+ *
+ * <p>Whether a job is bound by I/O or CPU shows in how the read and write wait compares to
+ * the time spent coding blocks.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class CodecMetrics implements CodecListener, CodecMetricsMBean {
+
+    private final LongAdder blocksCompressed = new LongAdder();
+    private final LongAdder bytesCompressed = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder blocksDecompressed = new LongAdder();
+    private final LongAdder bytesDecompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final LongAdder[] phases = new LongAdder[Phase.values().length];
+
+    /**
+     * Creates metrics with every counter at zero.
+     */
+    public CodecMetrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void blockCompressed(int rawLength, int codedLength, long nanos) {
+        blocksCompressed.increment();
+        bytesCompressed.add(rawLength);
+        compressedBytes.add(codedLength);
+        compressNanos.add(nanos);
+    }
+
+    @Override
+    public void blockDecompressed(int rawLength, int codedLength, long nanos) {
+        blocksDecompressed.increment();
+        bytesDecompressed.add(rawLength);
+        decompressNanos.add(nanos);
+    }
+
+    @Override
+    public void phase(Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name the name to register them under, such as the name of the job.
+     * @return the object name they were registered as.
+     * @throws JMException if the name is taken or not valid.
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("no.flatline:type=CodecMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getBlocksCompressed() {
+        return blocksCompressed.sum();
+    }
+
+    @Override
+    public long getBytesCompressed() {
+        return bytesCompressed.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long in = bytesCompressed.sum();
+        return in == 0 ? 0 : (double) compressedBytes.sum() / in;
+    }
+
+    @Override
+    public long getCompressNanos() {
+        return compressNanos.sum();
+    }
+
+    @Override
+    public long getBlocksDecompressed() {
+        return blocksDecompressed.sum();
+    }
+
+    @Override
+    public long getBytesDecompressed() {
+        return bytesDecompressed.sum();
+    }
+
+    @Override
+    public long getDecompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * Returns the time spent in a phase.
+     *
+     * @param phase the phase.
+     * @return the time in nanoseconds, summed over every thread.
+     */
+    public long getNanos(Phase phase) {
+        return phases[phase.ordinal()].sum();
+    }
+
+    @Override
+    public long getMatchNanos() {
+        return getNanos(Phase.MATCH);
+    }
+
+    @Override
+    public long getCountNanos() {
+        return getNanos(Phase.COUNT);
+    }
+
+    @Override
+    public long getBuildNanos() {
+        return getNanos(Phase.BUILD);
+    }
+
+    @Override
+    public long getEncodeNanos() {
+        return getNanos(Phase.ENCODE);
+    }
+
+    @Override
+    public long getReadWaitNanos() {
+        return getNanos(Phase.READ);
+    }
+
+    @Override
+    public long getWriteWaitNanos() {
+        return getNanos(Phase.WRITE);
+    }
+
+    @Override
+    public void reset() {
+        blocksCompressed.reset();
+        bytesCompressed.reset();
+        compressedBytes.reset();
+        compressNanos.reset();
+        blocksDecompressed.reset();
+        bytesDecompressed.reset();
+        decompressNanos.reset();
+        for (LongAdder phase : phases) {
+            phase.reset();
+        }
+    }
+
+    /**
+     * Returns a one line summary: bytes, ratio and where the time went, in milliseconds.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("compressed %d blocks, %d -> %d bytes (%.2f%%) in %d ms",
+                getBlocksCompressed(), getBytesCompressed(), getCompressedBytes(), 100 * getCompressionRatio(),
+                getCompressNanos() / 1_000_000));
+        sb.append(String.format(", decompressed %d blocks, %d bytes in %d ms",
+                getBlocksDecompressed(), getBytesDecompressed(), getDecompressNanos() / 1_000_000));
+        for (Phase phase : Phase.values()) {
+            sb.append(", ").append(phase.name().toLowerCase()).append(' ').append(getNanos(phase) / 1_000_000).append(" ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package no.flatline;
+
+/**
+ * The management interface of {@link CodecMetrics}. Times are in nanoseconds, summed over every
+ * thread, so they can add up to more than the time that has passed.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public interface CodecMetricsMBean {
+
+    /** Returns the number of blocks compressed. */
+    long getBlocksCompressed();
+
+    /** Returns the number of uncompressed bytes compressed. */
+    long getBytesCompressed();
+
+    /** Returns the number of bytes the compressed blocks were coded into. */
+    long getCompressedBytes();
+
+    /**
+     * Returns the compressed size as a share of the uncompressed size, or 0 if nothing was compressed.
+     *
+     * @return the compression ratio.
+     */
+    double getCompressionRatio();
+
+    /** Returns the time spent compressing blocks. */
+    long getCompressNanos();
+
+    /** Returns the number of blocks decompressed. */
+    long getBlocksDecompressed();
+
+    /** Returns the number of uncompressed bytes decompressed. */
+    long getBytesDecompressed();
+
+    /** Returns the time spent decompressing blocks. */
+    long getDecompressNanos();
+
+    /** Returns the time spent finding repeats. */
+    long getMatchNanos();
+
+    /** Returns the time spent counting symbols. */
+    long getCountNanos();
+
+    /** Returns the time spent building codes. */
+    long getBuildNanos();
+
+    /** Returns the time spent writing symbols with their codes. */
+    long getEncodeNanos();
+
+    /** Returns the time spent waiting for input. */
+    long getReadWaitNanos();
+
+    /** Returns the time spent waiting for output to be written. */
+    long getWriteWaitNanos();
+
+    /**
+     * Sets every counter to zero.
+     */
+    void reset();
+}
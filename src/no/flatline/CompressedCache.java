@@ -0,0 +1,328 @@
+package no.flatline;
+
+import no.flatline.file.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps decompressed files in memory, so that a file read again is not read and decoded again.
+ * A file is looked up by its path, and its cached bytes are used as long as its modification
+ * time and size are the ones it had when it was decompressed. Compressed bytes that do not come
+ * from a file are looked up by their SHA-256 hash. Either is cached apart for every codec class
+ * and {@link Model} it is decoded with, so bytes decoded by one codec are never returned for another.
+ *
+ * <p>The cache holds at most a given number of bytes. The entries are spread over
+ * {@link #DEFAULT_STRIPES stripes} by key, each with its own lock and an equal share of the
+ * budget, and a stripe that is over its share evicts its least recently used entries. Threads
+ * reading different files therefore seldom wait for each other. A file larger than the share of
+ * a stripe is decompressed every time. Two threads missing the same file at the same time both
+ * decompress it.</p>
+ *
+ * <p>The cached bytes are returned as read-only buffers, so they can be handed to any number
+ * of readers.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class CompressedCache {
+
+    /** Default number of stripes. */
+    public static final int DEFAULT_STRIPES = 16;
+    /* Rough size of an entry besides its bytes: the key, the entry and the map node */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final Stripe[] stripes;
+    private final long stripeBudget;
+    private final AtomicLong size = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache with {@value #DEFAULT_STRIPES} stripes.
+     *
+     * @param maxBytes the most bytes the cache may hold.
+     * @throws IllegalArgumentException if the budget is negative.
+     */
+    public CompressedCache(long maxBytes) {
+        this(maxBytes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes the most bytes the cache may hold.
+     * @param stripes the number of locks the entries are spread over.
+     * @throws IllegalArgumentException if the budget is negative or there are no stripes.
+     */
+    public CompressedCache(long maxBytes, int stripes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("Negative budget " + maxBytes);
+        if (stripes < 1) throw new IllegalArgumentException("At least one stripe is needed");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeBudget = maxBytes / stripes;
+    }
+
+    /**
+     * Returns the decompressed bytes of a file, decompressing it with the default codec of its
+     * extension unless it is cached.
+     *
+     * @param file the compressed file.
+     * @return a read-only buffer of the decompressed bytes.
+     * @throws IOException if the file can not be read or is corrupt.
+     */
+    public ByteBuffer get(File file) throws IOException {
+        Compressor codec;
+        try {
+            codec = Compressor.forExtension(FileUtil.getExtension(file));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return get(file, codec);
+    }
+
+    /**
+     * Returns the decompressed bytes of a file, decompressing it unless it is cached. This is
+     * how files coded with a {@link Model} are read.
+     *
+     * @param file the compressed file.
+     * @param codec the codec the file was compressed with.
+     * @return a read-only buffer of the decompressed bytes.
+     * @throws IOException if the file can not be read or is corrupt.
+     */
+    public ByteBuffer get(File file, Compressor codec) throws IOException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        long length = attributes.size();
+        Key key = new Key(codec, path.toString());
+        byte[] bytes = lookup(key, modified, length);
+        if (bytes == null) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+                bytes = decompress(codec, in, length);
+            }
+            store(key, new Entry(modified, length, bytes));
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the decompressed bytes of compressed bytes, decompressing them unless bytes with
+     * the same hash are cached.
+     *
+     * @param compressed the compressed bytes.
+     * @param codec the codec the bytes were compressed with.
+     * @return a read-only buffer of the decompressed bytes.
+     * @throws IOException if the bytes are corrupt.
+     */
+    public ByteBuffer get(byte[] compressed, Compressor codec) throws IOException {
+        Key key = new Key(codec, ByteBuffer.wrap(sha256(compressed)));
+        byte[] bytes = lookup(key, 0, compressed.length);
+        if (bytes == null) {
+            bytes = decompress(codec, new ByteArrayInputStream(compressed), compressed.length);
+            store(key, new Entry(0, compressed.length, bytes));
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size.addAndGet(-stripe.size);
+                stripe.size = 0;
+                stripe.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached bytes of a key if they were cached for the same version of the source.
+     */
+    private byte[] lookup(Key key, long modified, long length) {
+        Stripe stripe = stripe(key);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.entries.get(key);
+        }
+        if (entry != null && entry.modified == modified && entry.length == length) {
+            hits.increment();
+            return entry.bytes;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches an entry in place of any older version, and evicts the least recently used entries
+     * of its stripe until it is within its budget. An entry larger than the budget only removes
+     * the older version.
+     */
+    private void store(Key key, Entry entry) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            boolean fits = entry.weight() <= stripeBudget;
+            Entry old = fits ? stripe.entries.put(key, entry) : stripe.entries.remove(key);
+            long added = (fits ? entry.weight() : 0) - (old == null ? 0 : old.weight());
+            stripe.size += added;
+            size.addAndGet(added);
+            for (Iterator<Entry> it = stripe.entries.values().iterator(); stripe.size > stripeBudget; ) {
+                Entry eldest = it.next();
+                it.remove();
+                stripe.size -= eldest.weight();
+                size.addAndGet(-eldest.weight());
+                evictions.increment();
+            }
+        }
+    }
+
+    private Stripe stripe(Key key) {
+        int h = key.hashCode();
+        return stripes[((h ^ h >>> 16) & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static byte[] decompress(Compressor codec, InputStream in, long compressedLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(1 << 24, 2 * compressedLength + 64));
+        codec.decompress(in, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every Java platform has SHA-256", e);
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their bytes cached.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to decompress.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the budget.
+     *
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the share of lookups that found their bytes cached.
+     *
+     * @return the hit rate from 0 to 1, or 0 if nothing has been looked up.
+     */
+    public double getHitRate() {
+        long hit = getHitCount();
+        long total = hit + getMissCount();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * Returns the number of bytes the cache holds, with an estimate of the overhead of every entry.
+     *
+     * @return the size in bytes.
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d bytes cached",
+                getHitCount(), getMissCount(), 100 * getHitRate(), getEvictionCount(), getSize());
+    }
+
+    /**
+     * A source of compressed bytes, its path or hash, with what decodes it: the codec class and the
+     * ID of its model, 0 for none. Codecs that agree on both decode the same bytes the same way.
+     */
+    private static final class Key {
+
+        final String codec;
+        final int model;
+        final Object source;
+
+        Key(Compressor codec, Object source) {
+            this.codec = codec.getClass().getName();
+            this.model = codec instanceof BlockCompressor ? ((BlockCompressor) codec).header().model : 0;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return model == other.model && codec.equals(other.codec) && source.equals(other.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return (source.hashCode() * 31 + codec.hashCode()) * 31 + model;
+        }
+    }
+
+    /**
+     * The decompressed bytes of one version of a source.
+     */
+    private static final class Entry {
+
+        final long modified;
+        final long length;
+        final byte[] bytes;
+
+        Entry(long modified, long length, byte[] bytes) {
+            this.modified = modified;
+            this.length = length;
+            this.bytes = bytes;
+        }
+
+        long weight() {
+            return bytes.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * The entries of one lock, in order of last use, and their total weight.
+     */
+    private static final class Stripe {
+
+        final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        long size;
+    }
+}
@@ -1,25 +1,201 @@
 package no.flatline;
 
-import java.io.File;
+import no.flatline.file.FileUtil;
+import no.flatline.io.ByteBufferInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
 /**
+ * A compression codec. Implementations code streams; the channel, buffer and file
+ * variants are wrappers over the stream methods unless an implementation has a faster path.
+ * None of the methods close the streams or channels they are given.
+ *
  * @author Rolv-Arild Braaten
  * @since 0.0.1
- * @version 1.0.0
+ * @version 1.1.0
  */
 public interface Compressor {
 
     /**
-     * Compresses a file.
+     * Returns the file extension of compressed files, without the dot.
+     *
+     * @return the file extension of compressed files.
+     */
+    String getExtension();
+
+    /**
+     * Returns a codec with its default settings for files with the given extension.
+     *
+     * @param extension the file extension, without the dot.
+     * @return a codec that decompresses such files.
+     * @throws IllegalArgumentException if no codec uses the extension.
+     */
+    static Compressor forExtension(String extension) {
+        switch (extension) {
+            case "cff":
+                return new Huffman();
+            case "clz":
+                return new LempelZiv();
+            case "clh":
+                return new LempelZivHuffman();
+            case "cro":
+                return new RangeCoder();
+            case "cad":
+                return new Adaptive();
+            default:
+                throw new IllegalArgumentException("Unknown codec " + extension);
+        }
+    }
+
+    /**
+     * Sets the listener that is told about every block this codec codes and the time it takes.
+     *
+     * @param listener the listener, or null for none.
+     */
+    void setListener(CodecListener listener);
+
+    /**
+     * Compresses everything read from {@code in} until it ends.
+     * The input is read a block at a time, so memory use does not grow with its length.
+     *
+     * @param in the stream to compress.
+     * @param out the stream to write the compressed bytes to.
+     * @throws IOException if reading or writing fails.
+     */
+    void compress(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Decompresses a stream written by {@link #compress(InputStream, OutputStream)}.
+     * The input may be read past the end of the compressed data.
+     *
+     * @param in the compressed stream.
+     * @param out the stream to write the decompressed bytes to.
+     * @throws IOException if reading or writing fails, or the input is corrupt.
+     */
+    void decompress(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Checks that a stream written by {@link #compress(InputStream, OutputStream)} decompresses
+     * without error, discarding the decompressed bytes.
+     *
+     * @param in the compressed stream.
+     * @throws IOException if reading fails, or the input is corrupt.
+     */
+    default void verify(InputStream in) throws IOException {
+        decompress(in, NullOutputStream.NULL_OUTPUT_STREAM);
+    }
+
+    /**
+     * Compresses everything read from {@code in} until it ends.
+     *
+     * @param in the channel to compress.
+     * @param out the channel to write the compressed bytes to.
+     * @throws IOException if reading or writing fails.
+     */
+    default void compress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        OutputStream os = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+        compress(Channels.newInputStream(in), os);
+        os.flush();
+    }
+
+    /**
+     * Decompresses a channel written by {@link #compress(ReadableByteChannel, WritableByteChannel)}.
+     *
+     * @param in the compressed channel.
+     * @param out the channel to write the decompressed bytes to.
+     * @throws IOException if reading or writing fails, or the input is corrupt.
+     */
+    default void decompress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        OutputStream os = new BufferedOutputStream(Channels.newOutputStream(out), 1 << 16);
+        decompress(Channels.newInputStream(in), os);
+        os.flush();
+    }
+
+    /**
+     * Compresses the remaining bytes of a buffer.
+     *
+     * @param src the bytes to compress. Its position is advanced to its limit.
+     * @return a buffer holding the compressed bytes, ready to be read.
+     * @throws IOException if compression fails.
+     */
+    default ByteBuffer compress(ByteBuffer src) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.remaining() / 2 + 64);
+        compress(new ByteBufferInputStream(src), out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Decompresses the remaining bytes of a buffer.
+     *
+     * @param src the compressed bytes. Its position is advanced past the data read.
+     * @return a buffer holding the decompressed bytes, ready to be read.
+     * @throws IOException if the input is corrupt.
+     */
+    default ByteBuffer decompress(ByteBuffer src) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.remaining() * 2 + 64);
+        decompress(new ByteBufferInputStream(src), out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Compresses a file into resource/compressed, named after the source with
+     * {@link #getExtension()} appended.
      *
      *  @param src the source file to compress.
+     *  @throws IOException if the file can not be read, or the compressed file can not be written.
+     */
+    default void compress(File src) throws IOException {
+        if (!src.isFile() || !src.canRead()) throw new FileNotFoundException(src.getPath());
+        File compFile = FileUtil.createFile("resource/compressed", src.getName(), getExtension());
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(compFile.toPath(), StandardOpenOption.WRITE)) {
+            compress(in, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(compFile.toPath());
+            throw e;
+        }
+    }
+
+    /**
+     * Checks a compressed file without writing the decompressed bytes anywhere.
+     *
+     *  @param src the compressed file to check.
+     *  @throws IOException if the file can not be read or is corrupt.
      */
-    void compress(File src);
+    default void verify(File src) throws IOException {
+        if (!src.isFile() || !src.canRead()) throw new FileNotFoundException(src.getPath());
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(src.toPath()), 1 << 16)) {
+            verify(in);
+        }
+    }
 
     /**
-     * Decompresses a file.
+     * Decompresses a file into resource/decompressed, named after the source without its extension.
      *
      *  @param src the source file to decompress.
+     *  @throws IOException if the file can not be read or is corrupt, or the decompressed file can not be written.
+     *  @throws IllegalArgumentException if the file does not have the extension of this codec.
      */
-    void decompress(File src);
+    default void decompress(File src) throws IOException {
+        if (!src.isFile() || !src.canRead()) throw new FileNotFoundException(src.getPath());
+        if (!FileUtil.getExtension(src).equals(getExtension())) {
+            throw new IllegalArgumentException("File is not valid format");
+        }
+        File dcompFile = FileUtil.createFile("resource/decompressed", FileUtil.getBaseName(src));
+        try (FileChannel in = FileChannel.open(src.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dcompFile.toPath(), StandardOpenOption.WRITE)) {
+            decompress(in, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(dcompFile.toPath());
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,464 @@
+package no.flatline;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Layout of the block container used by the codecs.
+ *
+ * <pre>
+ * header  magic 'F' 'F' 'C', version, flags, log2 of the block size,
+ *         model ID (int) if {@link #FLAG_MODEL} is set
+ * frame*  type, raw length (varint), payload length (varint),
+ *         CRC32 of the raw block (int) if {@link #FLAG_CHECKSUM} is set, payload
+ * end     type {@link #END}
+ * index   if there is more than one frame: frame count (varint), then per frame
+ *         its raw length and the length of the whole frame (varints)
+ * trailer if there is an index: offset of the index (long), magic 'F' 'F' 'I'
+ * </pre>
+ *
+ * Every frame holds one independently coded block, so frames can be encoded
+ * and decoded in parallel and concatenated in order. The payload length lets
+ * a reader find the next frame without decoding the current one.
+ * The first byte of the old single-stream .cff layout is a width between 1 and 8,
+ * so it can never be mistaken for the magic. Every block is checked against its
+ * checksum as soon as it is decoded, so corruption that decodes without error is
+ * still reported instead of written as output. The index lets a reader find the
+ * block holding any uncompressed offset without reading the frames before it;
+ * stream readers stop at the end frame and never see it. A container is appended to
+ * by replacing the end frame and index with more frames and a new index.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class Container {
+
+    static final byte[] MAGIC = {'F', 'F', 'C'};
+    static final int VERSION = 1;
+    static final byte[] INDEX_MAGIC = {'F', 'F', 'I'};
+    static final int TRAILER_SIZE = 8 + INDEX_MAGIC.length;
+    /** Length of the longest frame header: type, two varints and a checksum. */
+    static final int MAX_FRAME_HEADER = 1 + 5 + 5 + 4;
+
+    /** Frame type marking the end of the container. */
+    static final int END = 0;
+    /** Frame type of a Huffman coded block with its own frequency table. */
+    static final int HUFFMAN = 1;
+    /** Frame type of an LZ77 coded block. */
+    static final int LZ77 = 2;
+    /** Frame type of an LZ77 coded block with Huffman coded literals, lengths and distances. */
+    static final int LZ77_HUFFMAN = 3;
+    /** Frame type of a Huffman coded block with a canonical code, storing only the code lengths. */
+    static final int HUFFMAN_CANONICAL = 4;
+    /** Frame type of a Huffman coded block with a shared canonical code that is stored outside the container. */
+    static final int HUFFMAN_TABLE = 5;
+    /** Frame type of a block range coded with an adaptive order-0 model. */
+    static final int RANGE_ORDER0 = 6;
+    /** Frame type of a block range coded with an adaptive order-1 context model. */
+    static final int RANGE_ORDER1 = 7;
+    /** Frame type of a block stored as it is. */
+    static final int STORED = 8;
+    /** Frame type of a Huffman coded block split into four bit streams that can be decoded side by side. */
+    static final int HUFFMAN_STREAMS = 9;
+
+    /** Header flag set when blocks are coded with a trained {@link Model}, whose ID follows. */
+    static final int FLAG_MODEL = 1;
+    /** Header flag set when every frame header holds the CRC32 of its uncompressed block. */
+    static final int FLAG_CHECKSUM = 2;
+    private static final int KNOWN_FLAGS = FLAG_MODEL | FLAG_CHECKSUM;
+
+    private Container() {}
+
+    /**
+     * The settings in a container header.
+     */
+    static final class Header {
+
+        final int flags;
+        final int blockSize;
+        /** The ID of the model, if {@link #FLAG_MODEL} is set. */
+        final int model;
+
+        Header(int flags, int blockSize, int model) {
+            this.flags = flags;
+            this.blockSize = blockSize;
+            this.model = model;
+        }
+
+        boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+    }
+
+    /**
+     * The raw and frame length of every frame written, for the index written after the end frame.
+     * The arrays are kept when reset, so an index can be reused without allocating.
+     */
+    static final class Index {
+
+        private int count;
+        private int[] rawLengths = new int[16];
+        private int[] frameLengths = new int[16];
+        private long frameBytes;
+
+        void reset() {
+            count = 0;
+            frameBytes = 0;
+        }
+
+        /**
+         * Adds a frame.
+         *
+         * @param rawLength the uncompressed length of its block.
+         * @param frameLength the length of the whole frame, from its type to the end of its payload.
+         */
+        void add(int rawLength, int frameLength) {
+            if (count == rawLengths.length) {
+                rawLengths = Arrays.copyOf(rawLengths, 2 * count);
+                frameLengths = Arrays.copyOf(frameLengths, 2 * count);
+            }
+            rawLengths[count] = rawLength;
+            frameLengths[count++] = frameLength;
+            frameBytes += frameLength;
+        }
+
+        /**
+         * Writes the end frame, followed by the index and the trailer if there is more than one frame.
+         *
+         * @param out the stream the frames were written to.
+         * @param header the header the container was written with.
+         * @throws IOException if writing fails.
+         */
+        void writeEnd(OutputStream out, Header header) throws IOException {
+            out.write(END);
+            if (count < 2) return;
+            long offset = headerSize(header) + frameBytes + 1;
+            writeVarInt(out, count);
+            for (int i = 0; i < count; i++) {
+                writeVarInt(out, rawLengths[i]);
+                writeVarInt(out, frameLengths[i]);
+            }
+            writeInt(out, (int) (offset >>> 32));
+            writeInt(out, (int) offset);
+            out.write(INDEX_MAGIC);
+        }
+    }
+
+    /**
+     * Where the frames of a container are, read from its index or from the frame headers.
+     */
+    static final class Layout {
+
+        /** The uncompressed offset of every block, followed by the uncompressed size. */
+        final long[] rawOffsets;
+        /** The offset of every frame in the container. */
+        final long[] frameOffsets;
+        /** The offset of the end frame. */
+        final long end;
+
+        Layout(long[] rawOffsets, long[] frameOffsets, long end) {
+            this.rawOffsets = rawOffsets;
+            this.frameOffsets = frameOffsets;
+            this.end = end;
+        }
+
+        int count() {
+            return frameOffsets.length;
+        }
+
+        /** Returns the uncompressed size of the container. */
+        long size() {
+            return rawOffsets[rawOffsets.length - 1];
+        }
+
+        int rawLength(int frame) {
+            return (int) (rawOffsets[frame + 1] - rawOffsets[frame]);
+        }
+
+        int frameLength(int frame) {
+            return (int) ((frame + 1 < frameOffsets.length ? frameOffsets[frame + 1] : end) - frameOffsets[frame]);
+        }
+    }
+
+    /**
+     * Finds the frames of a container file, with the index at its end or, if it has none, by
+     * reading every frame header from the start, which skips the payloads without decoding them.
+     *
+     * @param channel the container.
+     * @param header the header read from the start of the container.
+     * @return the layout of the frames.
+     * @throws IOException if reading fails or the container is corrupt.
+     */
+    static Layout readLayout(FileChannel channel, Header header) throws IOException {
+        long start = headerSize(header);
+        long size = channel.size();
+        Layout layout = readIndex(channel, header, start, size);
+        return layout != null ? layout : scanFrames(channel, header, start, size);
+    }
+
+    /**
+     * Reads the index at the end of the container.
+     *
+     * @return the layout of the frames, or null if the container has no index.
+     */
+    private static Layout readIndex(FileChannel channel, Header header, long start, long size) throws IOException {
+        if (size < start + 1 + TRAILER_SIZE) return null;
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, size - TRAILER_SIZE);
+        for (int i = 0; i < INDEX_MAGIC.length; i++) {
+            if (trailer.get(8 + i) != INDEX_MAGIC[i]) return null;
+        }
+        long indexOffset = trailer.getLong(0);
+        if (indexOffset <= start || indexOffset > size - TRAILER_SIZE) throw new IOException("Corrupt block index");
+        ByteBuffer index = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, size - TRAILER_SIZE - indexOffset));
+        readFully(channel, index, indexOffset);
+        InputStream in = new ByteArrayInputStream(index.array());
+        int count = readVarInt(in);
+        if (count > index.capacity() / 2) throw new IOException("Corrupt block index");
+        long[] rawOffsets = new long[count + 1];
+        long[] frameOffsets = new long[count];
+        long frameOffset = start;
+        for (int i = 0; i < count; i++) {
+            int rawLength = readVarInt(in);
+            if (rawLength > header.blockSize) throw new IOException("Block is larger than the block size");
+            rawOffsets[i + 1] = rawOffsets[i] + rawLength;
+            frameOffsets[i] = frameOffset;
+            frameOffset += readVarInt(in);
+        }
+        if (frameOffset + 1 != indexOffset) throw new IOException("Corrupt block index");
+        return new Layout(rawOffsets, frameOffsets, frameOffset);
+    }
+
+    /**
+     * Finds the frames of a container without an index by reading every frame header.
+     */
+    private static Layout scanFrames(FileChannel channel, Header header, long start, long size) throws IOException {
+        long[] rawOffsets = new long[16];
+        long[] frameOffsets = new long[16];
+        int count = 0;
+        boolean checked = header.has(FLAG_CHECKSUM);
+        ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_HEADER);
+        long offset = start;
+        while (true) {
+            frame.clear();
+            frame.limit((int) Math.min(MAX_FRAME_HEADER, size - offset));
+            readFully(channel, frame, offset);
+            InputStream in = new ByteArrayInputStream(frame.array(), 0, frame.limit());
+            if (readByte(in) == END) break;
+            int rawLength = readVarInt(in);
+            int length = readVarInt(in);
+            checkFrame(header, rawLength, length);
+            if (count + 1 == rawOffsets.length) {
+                rawOffsets = Arrays.copyOf(rawOffsets, 2 * rawOffsets.length);
+                frameOffsets = Arrays.copyOf(frameOffsets, 2 * frameOffsets.length);
+            }
+            frameOffsets[count] = offset;
+            rawOffsets[count + 1] = rawOffsets[count] + rawLength;
+            count++;
+            offset += frame.limit() - in.available() + (checked ? 4 : 0) + length;
+            if (offset >= size) throw new EOFException("Unexpected end of container");
+        }
+        return new Layout(Arrays.copyOf(rawOffsets, count + 1), Arrays.copyOf(frameOffsets, count), offset);
+    }
+
+    /**
+     * Reads from a channel at a position until the buffer is full.
+     *
+     * @param channel the channel to read from.
+     * @param buf the buffer to fill.
+     * @param position the position to read from.
+     * @throws IOException if reading fails or the channel ends first.
+     */
+    static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0) throw new EOFException("Unexpected end of container");
+        }
+    }
+
+    /**
+     * Returns the length of a container header.
+     *
+     * @param header the header.
+     * @return the number of bytes {@link #writeHeader} writes for it.
+     */
+    static int headerSize(Header header) {
+        return MAGIC.length + 3 + (header.has(FLAG_MODEL) ? 4 : 0);
+    }
+
+    /**
+     * Writes the container header.
+     *
+     * @param out the stream to write to.
+     * @param header the header, with a block size that is a power of two.
+     * @throws IOException if writing fails.
+     */
+    static void writeHeader(OutputStream out, Header header) throws IOException {
+        if (Integer.bitCount(header.blockSize) != 1) throw new IllegalArgumentException("Block size must be a power of two");
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(header.flags);
+        out.write(Integer.numberOfTrailingZeros(header.blockSize));
+        if (header.has(FLAG_MODEL)) writeInt(out, header.model);
+    }
+
+    /**
+     * Reads the rest of the container header after the first magic byte.
+     *
+     * @param in the stream to read from.
+     * @return the header.
+     * @throws IOException if reading fails or the header is not valid.
+     */
+    static Header readHeader(InputStream in) throws IOException {
+        for (int i = 1; i < MAGIC.length; i++) {
+            if (readByte(in) != MAGIC[i]) throw new IOException("File is not valid format");
+        }
+        int version = readByte(in);
+        if (version != VERSION) throw new IOException("Unsupported container version " + version);
+        int flags = readByte(in);
+        if ((flags & ~KNOWN_FLAGS) != 0) throw new IOException("Unsupported container flags " + flags);
+        int log = readByte(in);
+        if (log > 30) throw new IOException("Invalid block size");
+        int model = (flags & FLAG_MODEL) != 0 ? readInt(in) : 0;
+        return new Header(flags, 1 << log, model);
+    }
+
+    /**
+     * Writes a frame header.
+     *
+     * @param out the stream to write to.
+     * @param type the frame type.
+     * @param rawLength the uncompressed length of the block.
+     * @param length the length of the payload that follows.
+     * @throws IOException if writing fails.
+     */
+    static void writeFrame(OutputStream out, int type, int rawLength, int length) throws IOException {
+        out.write(type);
+        writeVarInt(out, rawLength);
+        writeVarInt(out, length);
+    }
+
+    /**
+     * Checks the lengths of a frame header against the block size, before a payload of that
+     * length is read into memory. No codec codes a block into more than four times its size:
+     * the deepest code is a Huffman tree of 29 levels over a block of 1 MB, which also stores
+     * a frequency table of a few KB.
+     *
+     * @param header the header of the container.
+     * @param rawLength the uncompressed length of the block.
+     * @param length the length of the payload.
+     * @throws IOException if either length is larger than a block of the container can have.
+     */
+    static void checkFrame(Header header, int rawLength, int length) throws IOException {
+        if (rawLength > header.blockSize) throw new IOException("Block is larger than the block size");
+        if (length > 4 * header.blockSize + (1 << 12)) {
+            throw new IOException("Payload is larger than the block size allows");
+        }
+    }
+
+    /**
+     * Computes the checksum of a block that is stored in its frame header.
+     *
+     * @param crc the checksum to compute with. It is reset first.
+     * @param bytes the buffer holding the block.
+     * @param off the offset of the block.
+     * @param len the length of the block.
+     * @return the CRC32 of the block.
+     */
+    static int checksum(CRC32 crc, byte[] bytes, int off, int len) {
+        crc.reset();
+        crc.update(bytes, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeVarInt(OutputStream, int)} writes for a value.
+     *
+     * @param value the value.
+     * @return its length as a varint, between 1 and 5.
+     */
+    static int varIntSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    /**
+     * Writes an unsigned integer in 7-bit groups, least significant group first.
+     *
+     * @param out the stream to write to.
+     * @param value the value to write.
+     * @throws IOException if writing fails.
+     */
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an unsigned integer written by {@link #writeVarInt(OutputStream, int)}.
+     *
+     * @param in the stream to read from.
+     * @return the value read.
+     * @throws IOException if reading fails or the value does not fit in an int.
+     */
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(in);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("Invalid length in frame header");
+                return value;
+            }
+        }
+        throw new IOException("Invalid length in frame header");
+    }
+
+    /**
+     * Writes an int, most significant byte first.
+     *
+     * @param out the stream to write to.
+     * @param value the value to write.
+     * @throws IOException if writing fails.
+     */
+    static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Reads an int written by {@link #writeInt(OutputStream, int)}.
+     *
+     * @param in the stream to read from.
+     * @return the value read.
+     * @throws IOException if reading fails or the stream has ended.
+     */
+    static int readInt(InputStream in) throws IOException {
+        return readByte(in) << 24 | readByte(in) << 16 | readByte(in) << 8 | readByte(in);
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @param in the stream to read from.
+     * @return the byte read, between 0 and 255.
+     * @throws IOException if reading fails or the stream has ended.
+     */
+    static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Unexpected end of container");
+        return b;
+    }
+}
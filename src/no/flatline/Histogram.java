@@ -0,0 +1,146 @@
+package no.flatline;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Counts bytes. Files are split into ranges that are mapped and counted in parallel on a
+ * {@link ForkJoinPool}, and the counts of the ranges are summed, so counting a large file
+ * runs on every core instead of one.
+ *
+ * <p>Counting a run of the same byte into one table makes every increment wait for the one
+ * before it to be stored. Bytes are therefore counted into {@value #STRIPES} tables in turn,
+ * which are summed at the end.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class Histogram {
+
+    static final int SYMBOLS = 256;
+    static final int STRIPES = 4;
+    /* Bytes of a file counted by one task. Small enough for an int per stripe, large enough to keep tasks cheap. */
+    private static final int RANGE_SIZE = 1 << 22;
+    /* Mapped bytes are copied into a chunk of this size before they are counted */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /* The striped tables and chunk of every worker thread */
+    private static final ThreadLocal<int[]> STRIPED = ThreadLocal.withInitial(() -> new int[STRIPES * SYMBOLS]);
+    private static final ThreadLocal<byte[]> CHUNKS = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private Histogram() {}
+
+    /**
+     * Adds the bytes of a buffer to striped tables.
+     *
+     * @param src the buffer.
+     * @param off the offset of the first byte to count.
+     * @param len the number of bytes to count.
+     * @param striped {@value #STRIPES} tables of {@value #SYMBOLS} counts, one after the other.
+     */
+    static void count(byte[] src, int off, int len, int[] striped) {
+        int i = off;
+        for (int end = off + (len & -STRIPES); i < end; i += STRIPES) {
+            striped[src[i] & 0xff]++;
+            striped[SYMBOLS | src[i + 1] & 0xff]++;
+            striped[2 * SYMBOLS | src[i + 2] & 0xff]++;
+            striped[3 * SYMBOLS | src[i + 3] & 0xff]++;
+        }
+        for (int end = off + len; i < end; i++) {
+            striped[src[i] & 0xff]++;
+        }
+    }
+
+    /**
+     * Adds striped tables to a histogram.
+     *
+     * @param striped the tables filled by {@link #count(byte[], int, int, int[])}.
+     * @param freq the count of every byte value to add to.
+     */
+    static void merge(int[] striped, long[] freq) {
+        for (int s = 0; s < SYMBOLS; s++) {
+            freq[s] += (long) striped[s] + striped[SYMBOLS | s] + striped[2 * SYMBOLS | s] + striped[3 * SYMBOLS | s];
+        }
+    }
+
+    /**
+     * Counts the bytes of files in parallel.
+     *
+     * @param files the files to count.
+     * @param pool the pool to count on.
+     * @return the count of every byte value in all the files.
+     * @throws IOException if a file can not be read.
+     */
+    static long[] count(Collection<Path> files, ForkJoinPool pool) throws IOException {
+        List<ForkJoinTask<long[]>> tasks = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                long size;
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    size = channel.size();
+                }
+                for (long position = 0; position < size; position += RANGE_SIZE) {
+                    final long start = position;
+                    final int len = (int) Math.min(RANGE_SIZE, size - position);
+                    tasks.add(pool.submit(() -> countRange(file, start, len)));
+                }
+            }
+            long[] freq = new long[SYMBOLS];
+            for (ForkJoinTask<long[]> task : tasks) {
+                long[] range = join(task);
+                for (int s = 0; s < SYMBOLS; s++) {
+                    freq[s] += range[s];
+                }
+            }
+            return freq;
+        } finally {
+            for (ForkJoinTask<long[]> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Counts one range of a file on the current worker.
+     */
+    private static long[] countRange(Path file, long position, int len) throws IOException {
+        int[] striped = STRIPED.get();
+        byte[] chunk = CHUNKS.get();
+        Arrays.fill(striped, 0);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+            while (range.hasRemaining()) {
+                int n = Math.min(chunk.length, range.remaining());
+                range.get(chunk, 0, n);
+                count(chunk, 0, n, striped);
+            }
+        }
+        long[] freq = new long[SYMBOLS];
+        merge(striped, freq);
+        return freq;
+    }
+
+    /**
+     * Waits for a counting task, unwrapping the I/O error it failed with.
+     */
+    private static long[] join(ForkJoinTask<long[]> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,12 +1,10 @@
 package no.flatline;
 
-import no.flatline.file.FileUtil;
+import no.flatline.io.BitReader;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Math.min;
 
@@ -17,164 +15,232 @@ import static java.lang.Math.min;
  * @author Kristoffer Arntzen
  * @author August Indal
  * @author Roy Åne Sylthe
- * @version 1.0.0
+ * @version 1.1.0
  * @since 0.0.1
  */
-public class Huffman implements Compressor {
+public class Huffman extends BlockCompressor {
 
-    private static final int BLOCK_SIZE = 1 << 20;
+    /* A shared code stored outside the blocks, or null if every block has its own */
+    private final Model model;
+    final int[] table;
+    final long[] tableCodes;
+    private final HuffmanDecoder tableDecoder;
+    /* Block coding state, one per worker thread */
+    private final ThreadLocal<HuffmanContext> contexts = ThreadLocal.withInitial(() -> new HuffmanContext(this));
 
     /**
-     * Default constructor.
+     * Default constructor. Blocks are coded on the common pool.
      */
-    public Huffman() {}
+    public Huffman() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a Huffman compressor coding blocks on the given pool.
+     *
+     * @param pool the pool to code blocks on.
+     */
+    public Huffman(ForkJoinPool pool) {
+        super(pool);
+        this.model = null;
+        this.table = null;
+        this.tableCodes = null;
+        this.tableDecoder = null;
+    }
+
+    /**
+     * Creates a Huffman compressor that codes with a trained model instead of a table per block,
+     * unless a block of its own is smaller. Blocks are coded on the common pool.
+     *
+     * @param model the model. The same model must be given to decompress.
+     */
+    public Huffman(Model model) {
+        this(model, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a Huffman compressor that codes with a trained model, coding blocks on the given pool.
+     *
+     * @param model the model. The same model must be given to decompress.
+     * @param pool the pool to code blocks on.
+     */
+    public Huffman(Model model, ForkJoinPool pool) {
+        this(model, model.table(), pool);
+    }
+
+    /**
+     * Creates a Huffman compressor with a shared canonical code, which is stored elsewhere
+     * instead of in every block. A block is still given a code of its own when the shared
+     * code has no code for one of its bytes, or when its own code is smaller even with its
+     * code lengths counted. Blocks are coded on the common pool.
+     *
+     * @param table the code length of every byte value, at most {@link CanonicalCode#MAX_LENGTH}.
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code.
+     */
+    Huffman(int[] table) {
+        this(null, table, ForkJoinPool.commonPool());
+    }
+
+    private Huffman(Model model, int[] table, ForkJoinPool pool) {
+        super(pool);
+        if (table.length != 256) throw new IllegalArgumentException("A table needs a length for every byte value");
+        this.model = model;
+        this.table = table.clone();
+        this.tableCodes = CanonicalCode.codes(this.table);
+        this.tableDecoder = new HuffmanDecoder(tableCodes, this.table);
+    }
 
     @Override
-    public void compress(File src) {
-        if (src.isFile() && src.canRead()) {
-            try {
-                DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(src)));
-                File compFile = FileUtil.createFile("resource/compressed", src.getName(), "cff");
-                DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compFile)));
-
-                /* First write frequency array */
-                long[] freq = new long[256];
-                int i1;
-                while ((i1 = dis.read()) != -1) {
-                    freq[i1]++;
-                }
-                long maxFreq = 0;
-                for (long aFreq : freq) {
-                    if (aFreq > maxFreq) {
-                        maxFreq = aFreq;
-                    }
-                }
-                byte first = (byte) (1 + Long.toBinaryString(maxFreq).length() / 8);
-                dos.writeByte(first);
-                for (int i = 0; i < freq.length; i++) {
-                    write(dos, first, freq, i);
-                }
-                dos.writeByte(0);
-
-                /* Now compress file using the frequencies */
-                Node root = getTree(freq);
-                Map<Integer, String> table = buildTable(root);
-
-                dis.close();
-                dis = new DataInputStream(new BufferedInputStream(new FileInputStream(src)));
-
-                byte[] bytes;
-                int len;
-                while ((len = min(dis.available(), BLOCK_SIZE)) > 0) {
-                    bytes = new byte[len];
-                    dis.readFully(bytes, 0, len);
-
-                    StringBuilder build = new StringBuilder();
-                    for (byte b : bytes) {
-                        String bits = table.get(b & 0xff);
-                        if (bits != null) build.append(bits);
-                    }
-
-                    dos.write(fromBitString(build.toString()));
-                }
-                dis.close();
-                dos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    public String getExtension() {
+        return "cff";
     }
 
-    private void write(DataOutputStream dos, byte first, long[] freq, int i) throws IOException {
-        if (freq[i] <= 0 && i != 0) return;
-        if (i != 0) dos.writeByte(i);
-        switch (first) {
-            case 1:
-                dos.writeByte((int) (freq[i] & 0xff));
-                break;
-            case 2:
-                dos.writeShort((int) (freq[i] & 0xffff));
-                break;
-            case 3:
-            case 4:
-                dos.writeInt((int) freq[i]);
-                break;
-            default:
-                dos.writeLong(freq[i]);
-                break;
+    @Override
+    Container.Header header() {
+        if (model == null) return super.header();
+        return new Container.Header(Container.FLAG_MODEL | Container.FLAG_CHECKSUM, getBlockSize(), model.getId());
+    }
+
+    @Override
+    void checkHeader(Container.Header header) throws IOException {
+        if (header.has(Container.FLAG_MODEL) && (model == null || header.model != model.getId())) {
+            throw new IOException("File needs model " + Model.name(header.model));
         }
     }
 
-    private byte[] fromBitString(String bitstring) {
-        ArrayList<Integer> list = new ArrayList<>();
+    /**
+     * Codes one block with the context of the current worker thread.
+     */
+    @Override
+    int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException {
+        HuffmanContext context = contexts.get();
+        int type = context.encodeBlock(src, 0, len);
+        context.payload.writeTo(payload);
+        return type;
+    }
 
-        for(String str : bitstring.split("(?<=\\G.{8})")) {
-                list.add(Integer.parseInt(str, 2) << (8-str.length()));
+    /**
+     * Returns the block coding context of the current thread.
+     *
+     * @return the context.
+     */
+    HuffmanContext context() {
+        return contexts.get();
+    }
+
+    /**
+     * Decodes a canonical block in one or four streams, a block coded with the shared code,
+     * or a block with its own frequency table as written before canonical codes.
+     */
+    @Override
+    void decodeBlock(int type, byte[] payload, int length, byte[] dst, int rawLength) throws IOException {
+        if (type == Container.HUFFMAN_CANONICAL) {
+            decodeCanonical(payload, length, dst, rawLength);
+        } else if (type == Container.HUFFMAN_STREAMS) {
+            decodeStreams(payload, length, dst, rawLength);
+        } else if (type == Container.HUFFMAN_TABLE) {
+            if (tableDecoder == null) throw new IOException("Block is coded with a shared table that was not given");
+            tableDecoder.decode(payload, 0, length, dst, 0, rawLength);
+        } else if (type == Container.HUFFMAN) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+            long[] freq = readTable(dis, dis.readByte());
+            Node root = getTree(freq);
+            if (root == null || root.freq != rawLength) {
+                throw new IOException("Block frequency table does not match the block length");
+            }
+            getDecoder(root).decode(new BitReader(dis, 1 << 13), dst, 0, rawLength);
+        } else {
+            throw new IOException("Unknown block type " + type);
         }
+    }
 
+    private void decodeCanonical(byte[] payload, int length, byte[] dst, int rawLength) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(payload, 0, length);
+        int[] lengths = CanonicalCode.readLengths(in, 256);
+        int used = 0;
+        int symbol = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengths[i] != 0) {
+                used++;
+                symbol = i;
+            }
+        }
+        if (used == 0) {
+            if (rawLength > 0) throw new IOException("Corrupt code length table");
+        } else if (used == 1) {
+            new HuffmanDecoder(symbol).decode(new BitReader(in), dst, 0, rawLength);
+        } else {
+            CanonicalCode.decoder(lengths).decode(payload, length - in.available(), length, dst, 0, rawLength);
+        }
+    }
 
-        byte[] bytes = new byte[list.size()];
-        for (int i = 0; i < bytes.length; i++) {
-            bytes[i] = (byte) (list.get(i) & 0xff);
+    private void decodeStreams(byte[] payload, int length, byte[] dst, int rawLength) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(payload, 0, length);
+        int[] lengths = CanonicalCode.readLengths(in, 256);
+        for (int codeLength : lengths) {
+            if (codeLength > HuffmanContext.STREAM_LENGTH) throw new IOException("Corrupt code length table");
+        }
+        HuffmanDecoder decoder = CanonicalCode.decoder(lengths);
+        if (decoder == null) throw new IOException("Corrupt code length table");
+        int[] bounds = new int[HuffmanContext.STREAMS + 1];
+        int[] sizes = new int[HuffmanContext.STREAMS - 1];
+        for (int s = 0; s < sizes.length; s++) {
+            sizes[s] = Container.readVarInt(in);
         }
-        return bytes;
+        bounds[0] = length - in.available();
+        for (int s = 0; s < sizes.length; s++) {
+            bounds[s + 1] = bounds[s] + sizes[s];
+            if (bounds[s + 1] < 0 || bounds[s + 1] > length) throw new IOException("Corrupt stream sizes");
+        }
+        bounds[HuffmanContext.STREAMS] = length;
+        decoder.decodeStreams(payload, bounds, dst, rawLength);
     }
 
+    /**
+     * Decompresses the single-stream layout written before the block container, where one
+     * frequency table is followed by the whole file with every {@link #BLOCK_SIZE} symbols
+     * padded to a whole byte.
+     *
+     * @param dis the compressed input, positioned after the first byte.
+     * @param first the first byte, which is the width of the frequencies.
+     * @param out the stream to write the decompressed bytes to.
+     * @throws IOException if reading or writing fails, or the input is corrupt.
+     */
     @Override
-    public void decompress(File src) {
-        if (src.isFile() && src.canRead()) {
-            String extension = FileUtil.getExtension(src);
-            if (extension.equals("cff")) {
-                try {
-                    DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(src)));
-                    File dcompFile = FileUtil.createFile("resource/decompressed", FileUtil.getBaseName(src));
-                    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dcompFile)));
-
-                    byte first = dis.readByte();
-                    long[] freq = new long[256];
-
-                    int b = 0;
-                    do {
-                        freq[b] = read(dis, first);
-                        b = dis.readByte() & 0xff;
-                    } while (b != 0);
-
-                    Node root = getTree(freq);
-
-                    byte[] bytes;
-
-                    int len;
-                    while ((len = min(dis.available(), BLOCK_SIZE)) > 0) {
-                        bytes = new byte[len];
-                        dis.readFully(bytes, 0, len);
-
-                        StringBuilder bits = new StringBuilder();
-                        for (byte b1 : bytes) {
-                            String s = Integer.toBinaryString(b1 & 0xff);
-                            if (s.length() < 8) {
-                                int padL = 8 - s.length();
-                                StringBuilder pad = new StringBuilder();
-                                for (int i = 0; i < padL; i++) {
-                                    pad.append("0");
-                                }
-                                s = pad + s;
-                            }
-                            bits.append(s);
-                        }
-                        writeBits(dos, root, bits.toString());
-                    }
-
-                    dis.close();
-                    dos.close();
-                } catch (IOException ioe) {
-                    ioe.printStackTrace();
-                }
-            } else {
-                throw new IllegalArgumentException("File is not valid format");
+    void decompressOther(DataInputStream dis, byte first, OutputStream out) throws IOException {
+        Node root = getTree(readTable(dis, first));
+        if (root != null) {
+            HuffmanDecoder decoder = getDecoder(root);
+            BitReader bits = new BitReader(dis);
+            byte[] bytes = new byte[(int) min(root.freq, BLOCK_SIZE)];
+            for (long remaining = root.freq; remaining > 0; remaining -= bytes.length) {
+                int len = (int) min(remaining, bytes.length);
+                decoder.decode(bits, bytes, 0, len);
+                bits.alignToByte();
+                out.write(bytes, 0, len);
             }
         }
     }
 
+    /**
+     * Reads a frequency table: the width of the frequencies, the frequency of byte 0,
+     * then every other used byte followed by its frequency, and finally a terminating 0.
+     *
+     * @param dis the stream to read from, positioned after the width byte.
+     * @param first the width of the frequencies.
+     * @return the frequency of every byte value.
+     * @throws IOException if reading fails.
+     */
+    private long[] readTable(DataInputStream dis, byte first) throws IOException {
+        long[] freq = new long[256];
+        int b = 0;
+        do {
+            freq[b] = read(dis, first);
+            b = dis.readByte() & 0xff;
+        } while (b != 0);
+        return freq;
+    }
+
     private long read(DataInputStream dis, byte first) throws IOException {
         switch (first) {
             case 1:
@@ -190,58 +256,39 @@ public class Huffman implements Compressor {
     }
 
     /**
-     * Creates a map where the characters can be mapped to their corresponding compressed bit string.
-     * @param root is the root node of the Huffman Tree.
-     * @return a map with the characters used in the text mapped to their bit string.
-     */
-    private Map<Integer, String> buildTable(final Node root){
-        final Map<Integer, String> table = new HashMap<>();
-        buildTableImpl(root, "", table);
-        return table;
-    }
-
-    /**
-     * Maps the characters to their corresponding compressed bit string.
-     * @param node is the root node of the Huffman Tree.
-     * @param s is the compressed string at the current location in the Huffman Tree.
-     * @param table is a table with all the used characters.
-     */
-    private void buildTableImpl(final Node node, final String s, final Map<Integer, String> table) {
-        if (!node.isLeaf()) {
-            buildTableImpl(node.leftChild, s + '0', table);
-            buildTableImpl(node.rightChild, s + '1', table);
-        } else {
-            table.put(node.character & 0xff, s);
-        }
-    }
-
-    /**
-     * Generates a bit string from a map and a string
+     * Returns a table decoder for the codes of a Huffman Tree.
      *
-     * @param table the character to bit string map to use.
-     * @param s the string to convert into a bit string.
-     * @return a bit string generated from {@code table} and {@code s}
+     * @param root the root of the Huffman Tree.
+     * @return a decoder for the codes of the tree.
      */
-    private String getBitString(Map<Integer, String> table, String s) {
-        StringBuilder bits = new StringBuilder();
-        for (int i = 0; i < s.length(); i++) {
-            bits.append(table.get((byte)s.charAt(i)));
-        }
-        return bits.toString();
+    private HuffmanDecoder getDecoder(final Node root) {
+        if (root.isLeaf()) return new HuffmanDecoder(root.character);
+        long[] codes = new long[256];
+        int[] lengths = new int[256];
+        buildCodes(root, 0, 0, codes, lengths);
+        return new HuffmanDecoder(codes, lengths);
     }
 
     /**
-     * Returns the root of the corresponding Huffman Tree to a string
+     * Assigns every leaf in the Huffman Tree its code and code length.
+     * The code is the path from the root, with '0' for a left and '1' for a right branch,
+     * stored right aligned with the first branch as the most significant bit.
      *
-     * @param s the string to get the Huffman Tree for.
-     * @return the root of the corresponding Huffman Tree to {@code s}
+     * @param node is the current node in the Huffman Tree.
+     * @param code is the path taken from the root to {@code node}.
+     * @param length is the depth of {@code node}.
+     * @param codes is the code table indexed by byte value.
+     * @param lengths is the code length table indexed by byte value.
      */
-    private Node getTree(String s) {
-        long[] freq = new long[Character.MAX_VALUE+1]; // one entry for each possible character
-        for (int i = 0; i < s.length(); i++) {
-            freq[s.charAt(i)]++;
+    private static void buildCodes(final Node node, final long code, final int length,
+                                   final long[] codes, final int[] lengths) {
+        if (!node.isLeaf()) {
+            buildCodes(node.leftChild, code << 1, length + 1, codes, lengths);
+            buildCodes(node.rightChild, (code << 1) | 1, length + 1, codes, lengths);
+        } else {
+            codes[node.character] = code;
+            lengths[node.character] = length;
         }
-        return getTree(freq);
     }
 
     /**
@@ -250,7 +297,7 @@ public class Huffman implements Compressor {
      * @param freq the frequency array to use on the string
      * @return the root of the corresponding Huffman Tree to {@code freq}
      */
-    private Node getTree(long[] freq) {
+    private static Node getTree(long[] freq) {
         PriorityQueue<Node> nodes = new PriorityQueue<>();
         for (int i = 0; i < freq.length; i++) {
             if (freq[i] > 0) {
@@ -268,38 +315,6 @@ public class Huffman implements Compressor {
         return nodes.peek();
     }
 
-    /**
-     * Generates a string from a bit string and a Huffman Tree.
-     *
-     * @param root the root of the Huffman Tree.
-     * @param bits the string of bits.
-     */
-    private void writeBits(DataOutputStream dos, Node root, String bits) throws IOException {
-        Node n = root;
-        int byteCounter = 0;
-        for (int i = 0; i < bits.length(); i++) {
-            switch (bits.charAt(i)) {
-                case '0':
-                    n = n.leftChild;
-                    break;
-                case '1':
-                    n = n.rightChild;
-                    break;
-                default:
-                    throw new IllegalArgumentException("Bit string contains illegal characters");
-            }
-            if (n.isLeaf()) {
-                dos.writeByte(n.character);
-                n = root;
-                byteCounter++;
-                if(byteCounter == root.freq) {
-                    break;
-                }
-            }
-        }
-        if (n != root) System.out.println("Unfinished bits");
-    }
-
     /**
      * The Node class is used to create a Huffman Tree.
      * Each node stores a character and its frequency.
@@ -0,0 +1,251 @@
+package no.flatline;
+
+import no.flatline.io.BitWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reusable state for Huffman coding on one thread: the histogram, the code construction arrays
+ * and the buffers a block is coded into. {@link Huffman} keeps one per worker thread, and callers
+ * that compress many small buffers can keep their own, which compresses on the calling thread and
+ * allocates nothing once its buffers have grown to the largest block coded.
+ *
+ * <p>A context is not thread safe. It holds on to buffers as large as the largest coded block.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class HuffmanContext {
+
+    private static final int SYMBOLS = 256;
+    /* Blocks of at least this size are split into this many streams, with codes that fit the decoder's root table */
+    static final int STREAMS_MIN_BLOCK = 1 << 14;
+    static final int STREAMS = 4;
+    static final int STREAM_LENGTH = HuffmanDecoder.ROOT_BITS;
+
+    private final Huffman owner;
+    private final Container.Header header;
+    /* The shared code of the compressor, or null */
+    private final int[] table;
+    private final long[] tableCodes;
+
+    private final long[] freq = new long[SYMBOLS];
+    private final int[] striped = new int[Histogram.STRIPES * SYMBOLS];
+    private final CodeBuilder builder = new CodeBuilder(SYMBOLS, CanonicalCode.MAX_LENGTH);
+    private final ByteArrayOutputStream lengths = new ByteArrayOutputStream(SYMBOLS / 2 + 8);
+    /* The payload of the last coded block */
+    final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 10);
+    private final BitWriter bits = new BitWriter(payload, 1 << 12);
+    private final CodeBuilder streamBuilder = new CodeBuilder(SYMBOLS, STREAM_LENGTH);
+    private final ByteArrayOutputStream streams = new ByteArrayOutputStream(1 << 10);
+    private final BitWriter streamBits = new BitWriter(streams, 1 << 12);
+    private final CRC32 crc = new CRC32();
+    private final Container.Index index = new Container.Index();
+    /* Time spent writing symbols while coding the current block */
+    private long encodeNanos;
+
+    /**
+     * Creates a context for a compressor.
+     *
+     * @param huffman the compressor whose shared code and settings to use, as they are now.
+     */
+    public HuffmanContext(Huffman huffman) {
+        this.owner = huffman;
+        this.header = huffman.header();
+        this.table = huffman.table;
+        this.tableCodes = huffman.tableCodes;
+    }
+
+    /**
+     * Compresses a buffer on the calling thread. The output is the same as that of
+     * {@link Huffman#compress(java.io.InputStream, OutputStream)} with the same compressor.
+     *
+     * @param src the buffer to compress.
+     * @param off the offset of the first byte to compress.
+     * @param len the number of bytes to compress.
+     * @param out the stream to write the compressed bytes to.
+     * @throws IOException if writing fails.
+     */
+    public void compress(byte[] src, int off, int len, OutputStream out) throws IOException {
+        if (off < 0 || len < 0 || off + len > src.length) throw new IndexOutOfBoundsException();
+        Container.writeHeader(out, header);
+        index.reset();
+        boolean checked = header.has(Container.FLAG_CHECKSUM);
+        for (int pos = off, end = off + len; pos < end; pos += header.blockSize) {
+            int n = Math.min(header.blockSize, end - pos);
+            long start = System.nanoTime();
+            int type = encodeBlock(src, pos, n);
+            owner.listener().blockCompressed(n, payload.size(), System.nanoTime() - start);
+            Container.writeFrame(out, type, n, payload.size());
+            if (checked) Container.writeInt(out, Container.checksum(crc, src, pos, n));
+            payload.writeTo(out);
+            index.add(n, 1 + Container.varIntSize(n) + Container.varIntSize(payload.size()) + (checked ? 4 : 0)
+                    + payload.size());
+        }
+        index.writeEnd(out, header);
+        out.flush();
+    }
+
+    /**
+     * Codes one block into {@link #payload} with a canonical code of at most
+     * {@link CanonicalCode#MAX_LENGTH} bits. Only the code lengths are stored. A block of a single
+     * repeated byte needs no bits at all. With a shared code, the block's own code is only built
+     * when the shared code is not already known to be smaller, which it is when it beats the
+     * entropy of the block.
+     *
+     * <p>A block of at least {@link #STREAMS_MIN_BLOCK} bytes with its own code is split into
+     * {@link #STREAMS} quarters, each coded as a bit stream of its own, so that they can be decoded
+     * side by side. The code is then limited to {@link #STREAM_LENGTH} bits, and the code lengths are
+     * followed by the byte length of the first three streams as varints.</p>
+     *
+     * @param src the buffer holding the block.
+     * @param off the offset of the block.
+     * @param len the length of the block.
+     * @return the frame type of the coded block.
+     * @throws IOException if coding fails.
+     */
+    int encodeBlock(byte[] src, int off, int len) throws IOException {
+        count(src, off, len);
+        return encodeCounted(src, off, len);
+    }
+
+    /**
+     * Counts the bytes of a block, for {@link #entropy(int)} and {@link #encodeCounted}.
+     *
+     * @param src the buffer holding the block.
+     * @param off the offset of the block.
+     * @param len the length of the block.
+     */
+    void count(byte[] src, int off, int len) {
+        long start = System.nanoTime();
+        Arrays.fill(freq, 0);
+        Arrays.fill(striped, 0);
+        Histogram.count(src, off, len, striped);
+        Histogram.merge(striped, freq);
+        owner.listener().phase(CodecListener.Phase.COUNT, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the order-0 entropy of the last counted block.
+     *
+     * @param len the length of the block.
+     * @return the entropy in bits, a lower bound of its coded size without the code lengths.
+     */
+    double entropy(int len) {
+        return entropy(freq, len);
+    }
+
+    /**
+     * Codes the last counted block, as {@link #encodeBlock} does.
+     *
+     * @param src the buffer holding the block.
+     * @param off the offset of the block.
+     * @param len the length of the block.
+     * @return the frame type of the coded block.
+     * @throws IOException if coding fails.
+     */
+    int encodeCounted(byte[] src, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        encodeNanos = 0;
+        int type = code(src, off, len);
+        CodecListener listener = owner.listener();
+        listener.phase(CodecListener.Phase.BUILD, System.nanoTime() - start - encodeNanos);
+        listener.phase(CodecListener.Phase.ENCODE, encodeNanos);
+        return type;
+    }
+
+    /**
+     * Builds the code of the last counted block and codes it, adding the time spent writing
+     * symbols to {@link #encodeNanos}.
+     */
+    private int code(byte[] src, int off, int len) throws IOException {
+        payload.reset();
+        long tableCost = table == null ? Long.MAX_VALUE : cost(freq, table);
+        if (tableCost <= entropy(freq, len)) {
+            writeSymbols(src, off, len, tableCodes, table);
+            return Container.HUFFMAN_TABLE;
+        }
+        int[] own = builder.lengths(freq);
+        lengths.reset();
+        CanonicalCode.writeLengths(lengths, own);
+        if (tableCost <= cost(freq, own) + 8L * lengths.size()) {
+            writeSymbols(src, off, len, tableCodes, table);
+            return Container.HUFFMAN_TABLE;
+        }
+        if (len > 0 && freq[src[off] & 0xff] == len) {
+            lengths.writeTo(payload);
+            return Container.HUFFMAN_CANONICAL;
+        }
+        if (len >= STREAMS_MIN_BLOCK) return encodeStreams(src, off, len, own);
+        lengths.writeTo(payload);
+        writeSymbols(src, off, len, builder.codes(own), own);
+        return Container.HUFFMAN_CANONICAL;
+    }
+
+    private int encodeStreams(byte[] src, int off, int len, int[] own) throws IOException {
+        int[] code = own;
+        for (int length : own) {
+            if (length > STREAM_LENGTH) {
+                code = streamBuilder.lengths(freq);
+                break;
+            }
+        }
+        CanonicalCode.writeLengths(payload, code);
+        long[] codes = builder.codes(code);
+        streams.reset();
+        int segment = (len + STREAMS - 1) / STREAMS;
+        for (int s = 0; s < STREAMS; s++) {
+            int start = streams.size();
+            int from = s * segment;
+            writeSymbols(streamBits, src, off + from, Math.min(segment, len - from), codes, code);
+            if (s < STREAMS - 1) Container.writeVarInt(payload, streams.size() - start);
+        }
+        streams.writeTo(payload);
+        return Container.HUFFMAN_STREAMS;
+    }
+
+    private void writeSymbols(byte[] src, int off, int len, long[] codes, int[] lengths) throws IOException {
+        writeSymbols(bits, src, off, len, codes, lengths);
+    }
+
+    private void writeSymbols(BitWriter bits, byte[] src, int off, int len, long[] codes, int[] lengths)
+            throws IOException {
+        long start = System.nanoTime();
+        for (int i = off, end = off + len; i < end; i++) {
+            int b = src[i] & 0xff;
+            bits.write(codes[b], lengths[b]);
+        }
+        bits.flush();
+        encodeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Returns the number of bits a code needs for the given frequencies,
+     * or {@link Long#MAX_VALUE} if it has no code for a used symbol.
+     */
+    private static long cost(long[] freq, int[] lengths) {
+        long bits = 0;
+        for (int i = 0; i < freq.length; i++) {
+            if (freq[i] == 0) continue;
+            if (lengths[i] == 0) return Long.MAX_VALUE;
+            bits += freq[i] * lengths[i];
+        }
+        return bits;
+    }
+
+    /**
+     * Returns a lower bound of the bits any prefix code needs for the given frequencies.
+     */
+    private static double entropy(long[] freq, int len) {
+        double bits = 0;
+        for (long f : freq) {
+            if (f > 0) bits += f * (Math.log((double) len / f) / Math.log(2));
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,366 @@
+package no.flatline;
+
+import no.flatline.io.BitReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Table driven decoder for prefix codes.
+ * The root table resolves every code of up to {@link #ROOT_BITS} bits with a single lookup.
+ * Longer codes continue in second-level tables, which are chained further only for
+ * the rare codes that do not fit in {@code ROOT_BITS + SUB_BITS} bits.
+ *
+ * <p>A table entry is either a leaf, holding a symbol and the number of bits it uses
+ * in that table, or a link to a sub-table, holding its offset and index width.
+ * An entry of zero marks a bit pattern no code starts with.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class HuffmanDecoder {
+
+    static final int ROOT_BITS = 11;
+    private static final int SUB_BITS = 8;
+
+    private static final int LINK = 0x80;
+    private static final int WIDTH_MASK = 0x7f;
+
+    private final long[] codes;
+    private final int[] lengths;
+
+    private int[] table = new int[1 << ROOT_BITS];
+    private int size;
+    private final int rootBits;
+    private final int maxLength;
+    private final int singleSymbol;
+    /* Whether every entry of the root table is a symbol, as for a complete code that fits in it */
+    private final boolean rootComplete;
+    /* Root entries decoding two symbols at once, built on first use */
+    private int[] pairs;
+
+    /**
+     * Builds the decoding tables for a prefix code.
+     *
+     * @param codes the code of each symbol, right aligned.
+     * @param lengths the code length of each symbol, 0 if the symbol is unused.
+     */
+    HuffmanDecoder(final long[] codes, final int[] lengths) {
+        this.codes = codes;
+        this.lengths = lengths;
+        int maxLength = 0;
+        for (int length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        if (maxLength == 0) throw new IllegalArgumentException("Code has no symbols");
+        this.rootBits = Math.min(ROOT_BITS, maxLength);
+        this.maxLength = maxLength;
+        this.singleSymbol = -1;
+        build(0, 0, rootBits);
+        boolean complete = true;
+        for (int i = 0; i < 1 << rootBits; i++) {
+            complete &= table[i] != 0 && (table[i] & LINK) == 0;
+        }
+        this.rootComplete = complete;
+    }
+
+    /**
+     * Creates a decoder for a tree with a single leaf. Such a tree has no branches,
+     * so its only symbol is coded with zero bits.
+     *
+     * @param symbol the only symbol of the code.
+     */
+    HuffmanDecoder(final int symbol) {
+        this.codes = null;
+        this.lengths = null;
+        this.rootBits = 0;
+        this.maxLength = 0;
+        this.singleSymbol = symbol;
+        this.rootComplete = false;
+    }
+
+    /**
+     * Decodes {@code n} symbols into {@code out}.
+     *
+     * @param in the bit stream to read codes from.
+     * @param out the buffer to write the decoded symbols to.
+     * @param off the offset in {@code out} to start writing at.
+     * @param n the number of symbols to decode.
+     * @throws IOException if the underlying stream fails or the bit stream is corrupt.
+     */
+    void decode(final BitReader in, final byte[] out, final int off, final int n) throws IOException {
+        if (singleSymbol >= 0) {
+            Arrays.fill(out, off, off + n, (byte) singleSymbol);
+            return;
+        }
+        for (int i = off, end = off + n; i < end; i++) {
+            out[i] = (byte) decodeSymbol(in);
+        }
+        in.checkOverrun();
+    }
+
+    /**
+     * Decodes {@code n} symbols from a bit stream held in {@code src}.
+     *
+     * <p>While eight bytes remain, the next bits are loaded as one word, which holds at least 57 of
+     * them, and codes are decoded from it until fewer bits than the longest code are left. Each
+     * lookup in the table of {@link #pairs()} decodes two codes when both fit in the root bits,
+     * which halves the chain of dependent lookups for the short codes of skewed data. The last
+     * bytes, and codes longer than a word can hold, are decoded with a {@link BitReader}.</p>
+     *
+     * @param src the bytes holding the bit stream.
+     * @param start the offset of the bit stream in {@code src}.
+     * @param end the end of the bit stream in {@code src}.
+     * @param out the buffer to write the decoded symbols to.
+     * @param off the offset in {@code out} to start writing at.
+     * @param n the number of symbols to decode.
+     * @throws IOException if the bit stream is corrupt or ends too early.
+     */
+    void decode(final byte[] src, final int start, final int end, final byte[] out, final int off, final int n)
+            throws IOException {
+        if (singleSymbol >= 0) {
+            Arrays.fill(out, off, off + n, (byte) singleSymbol);
+            return;
+        }
+        final int outEnd = off + n;
+        int o = off;
+        /* Bit position in src */
+        long b = (long) start << 3;
+        if (maxLength <= 57) {
+            final int[] table = this.table;
+            final int[] pairs = pairs();
+            final int shift = 64 - rootBits;
+            final ByteBuffer words = ByteBuffer.wrap(src);
+            /* A pair writes two bytes even when it holds one symbol, so the last one is left to the reader */
+            final int pairEnd = outEnd - 1;
+            while (o < pairEnd && (int) (b >>> 3) + 8 <= end) {
+                long w = words.getLong((int) (b >>> 3)) << (b & 7);
+                int available = 57;
+                while (available >= maxLength && o < pairEnd) {
+                    final int pair = pairs[(int) (w >>> shift)];
+                    if (pair != 0) {
+                        out[o] = (byte) pair;
+                        out[o + 1] = (byte) (pair >>> 8);
+                        o += pair >>> 24;
+                        final int l = pair >>> 16 & 0xff;
+                        w <<= l;
+                        available -= l;
+                        continue;
+                    }
+                    int width = rootBits;
+                    int entry = table[(int) (w >>> shift)];
+                    while ((entry & LINK) != 0) {
+                        w <<= width;
+                        available -= width;
+                        width = entry & WIDTH_MASK;
+                        entry = table[(entry >>> 8) + (int) (w >>> (64 - width))];
+                    }
+                    if (entry == 0) throw new IOException("Invalid Huffman code in bit stream");
+                    final int l = entry & WIDTH_MASK;
+                    w <<= l;
+                    available -= l;
+                    out[o++] = (byte) (entry >>> 8);
+                }
+                b += 57 - available;
+            }
+        }
+        final int p = (int) (b >>> 3);
+        final BitReader in = new BitReader(new ByteArrayInputStream(src, p, end - p), 1 << 13);
+        if ((b & 7) != 0) in.read((int) (b & 7));
+        decode(in, out, o, outEnd - o);
+    }
+
+    /**
+     * Returns a table indexed like the root table, where an entry holds the first symbol, the second
+     * symbol, the bits used by both and the number of symbols, 1 or 2, from the lowest byte up.
+     * The second symbol is only taken if its code fits in the bits left by the first. An entry of
+     * zero marks a link or a missing code, which is decoded with the root table.
+     */
+    private int[] pairs() {
+        if (pairs != null) return pairs;
+        final int bits = rootBits;
+        final int mask = (1 << bits) - 1;
+        final int[] pairs = new int[1 << bits];
+        for (int i = 0; i < pairs.length; i++) {
+            final int first = table[i];
+            if (first == 0 || (first & LINK) != 0) continue;
+            final int l1 = first & WIDTH_MASK;
+            final int second = table[i << l1 & mask];
+            final int l2 = second & WIDTH_MASK;
+            if (second != 0 && (second & LINK) == 0 && l1 + l2 <= bits) {
+                pairs[i] = 2 << 24 | (l1 + l2) << 16 | (second >>> 8) << 8 | first >>> 8;
+            } else {
+                pairs[i] = 1 << 24 | l1 << 16 | first >>> 8;
+            }
+        }
+        this.pairs = pairs;
+        return pairs;
+    }
+
+    /**
+     * Decodes a block coded as four bit streams, each holding a quarter of the block as written by
+     * {@link HuffmanContext}. The streams are decoded in one loop, one symbol from each in turn, so that
+     * the lookups of the four streams do not wait for each other. Every code must fit in the root table.
+     *
+     * <p>Each round loads the next eight bytes of every stream as one word and makes
+     * {@code 57 / ROOT_BITS} lookups in the table of {@link #pairs()} for each, so a stream costs
+     * one load and no branches per up to {@code 2 * 57 / ROOT_BITS} symbols. The code must be
+     * complete, so that every entry of the root table is a symbol and no lookup needs to be checked. The last bytes of the streams, where a word would reach past the end,
+     * are decoded a byte at a time.</p>
+     *
+     * @param src the bytes holding the streams.
+     * @param bounds the offsets where the four streams start, followed by the end of the last one.
+     * @param out the buffer to write the decoded symbols to.
+     * @param n the number of symbols to decode.
+     * @throws IOException if a stream is corrupt or ends too early.
+     */
+    void decodeStreams(final byte[] src, final int[] bounds, final byte[] out, final int n) throws IOException {
+        if (singleSymbol >= 0) throw new IOException("A single symbol code has no bit streams");
+        if (!rootComplete) throw new IOException("Bit streams need a complete code");
+        final int bits = rootBits;
+        final int shift = 64 - bits;
+        final int[] table = this.table;
+        final ByteBuffer words = ByteBuffer.wrap(src);
+        final int segment = (n + 3) / 4;
+        final int end0 = Math.min(n, segment), end1 = Math.min(n, 2 * segment), end2 = Math.min(n, 3 * segment);
+        final int e0 = bounds[1], e1 = bounds[2], e2 = bounds[3], e3 = bounds[4];
+        /* Bit positions in src */
+        int b0 = bounds[0] << 3, b1 = bounds[1] << 3, b2 = bounds[2] << 3, b3 = bounds[3] << 3;
+        int o0 = 0, o1 = end0, o2 = end1, o3 = end2;
+
+        /* A word shifted past the bits consumed of its first byte holds at least 57 bits */
+        final int perWord = 57 / bits;
+        final int[] pairs = pairs();
+        final int room = 2 * perWord;
+        while (end0 - o0 >= room && end1 - o1 >= room && end2 - o2 >= room && n - o3 >= room) {
+            if ((b0 >>> 3) + 8 > e0 || (b1 >>> 3) + 8 > e1 || (b2 >>> 3) + 8 > e2 || (b3 >>> 3) + 8 > e3) break;
+            long w0 = words.getLong(b0 >>> 3) << (b0 & 7);
+            long w1 = words.getLong(b1 >>> 3) << (b1 & 7);
+            long w2 = words.getLong(b2 >>> 3) << (b2 & 7);
+            long w3 = words.getLong(b3 >>> 3) << (b3 & 7);
+            for (int k = 0; k < perWord; k++) {
+                final int t0 = pairs[(int) (w0 >>> shift)];
+                final int t1 = pairs[(int) (w1 >>> shift)];
+                final int t2 = pairs[(int) (w2 >>> shift)];
+                final int t3 = pairs[(int) (w3 >>> shift)];
+                final int l0 = t0 >>> 16 & 0xff, l1 = t1 >>> 16 & 0xff, l2 = t2 >>> 16 & 0xff, l3 = t3 >>> 16 & 0xff;
+                w0 <<= l0;
+                w1 <<= l1;
+                w2 <<= l2;
+                w3 <<= l3;
+                b0 += l0;
+                b1 += l1;
+                b2 += l2;
+                b3 += l3;
+                out[o0] = (byte) t0;
+                out[o0 + 1] = (byte) (t0 >>> 8);
+                out[o1] = (byte) t1;
+                out[o1 + 1] = (byte) (t1 >>> 8);
+                out[o2] = (byte) t2;
+                out[o2 + 1] = (byte) (t2 >>> 8);
+                out[o3] = (byte) t3;
+                out[o3 + 1] = (byte) (t3 >>> 8);
+                o0 += t0 >>> 24;
+                o1 += t1 >>> 24;
+                o2 += t2 >>> 24;
+                o3 += t3 >>> 24;
+            }
+        }
+        finishStream(src, b0, e0, out, o0, end0);
+        finishStream(src, b1, e1, out, o1, end1);
+        finishStream(src, b2, e2, out, o2, end2);
+        finishStream(src, b3, e3, out, o3, n);
+    }
+
+    /**
+     * Decodes the rest of one stream of {@link #decodeStreams} a byte at a time and checks that it
+     * did not read past its end.
+     */
+    private void finishStream(final byte[] src, final int bitPosition, final int end,
+                              final byte[] out, int o, final int outEnd) throws IOException {
+        final int bits = rootBits;
+        int p = bitPosition >>> 3;
+        /* The bits of the first byte that are not consumed */
+        long acc = p < end ? src[p] & 0xff : 0;
+        int count = 8 - (bitPosition & 7);
+        p++;
+        for (; o < outEnd; o++) {
+            while (count <= 56) {
+                acc = acc << 8 | (p < end ? src[p] & 0xff : 0);
+                p++;
+                count += 8;
+            }
+            final int entry = table[(int) (acc >>> (count - bits)) & ((1 << bits) - 1)];
+            if (entry == 0) throw new IOException("Invalid Huffman code in bit stream");
+            count -= entry & WIDTH_MASK;
+            out[o] = (byte) (entry >>> 8);
+        }
+        if ((long) p * 8 - count > (long) end * 8) throw new EOFException("Unexpected end of bit stream");
+    }
+
+    /**
+     * Decodes a single symbol. The caller checks {@link BitReader#checkOverrun()} when done.
+     *
+     * @param in the bit stream to read the code from.
+     * @return the decoded symbol.
+     * @throws IOException if the underlying stream fails or the bit stream is corrupt.
+     */
+    int decodeSymbol(final BitReader in) throws IOException {
+        if (singleSymbol >= 0) return singleSymbol;
+        int width = rootBits;
+        int entry = table[in.peek(width)];
+        while ((entry & LINK) != 0) {
+            in.consume(width);
+            width = entry & WIDTH_MASK;
+            entry = table[(entry >>> 8) + in.peek(width)];
+        }
+        if (entry == 0) throw new IOException("Invalid Huffman code in bit stream");
+        in.consume(entry & WIDTH_MASK);
+        return entry >>> 8;
+    }
+
+    /**
+     * Fills a table for all codes starting with {@code prefix}.
+     *
+     * @param prefix the bits already resolved by the parent tables.
+     * @param prefixLength the number of bits in {@code prefix}.
+     * @param bits the index width of the new table.
+     * @return the offset of the new table.
+     */
+    private int build(final long prefix, final int prefixLength, final int bits) {
+        final int offset = allocate(1 << bits);
+        final int[] subLength = new int[1 << bits];
+        for (int s = 0; s < lengths.length; s++) {
+            final int rest = lengths[s] - prefixLength;
+            if (rest <= 0 || codes[s] >>> rest != prefix) continue;
+            if (rest <= bits) {
+                final int first = (int) (codes[s] & ((1L << rest) - 1)) << (bits - rest);
+                final int entry = s << 8 | rest;
+                Arrays.fill(table, offset + first, offset + first + (1 << (bits - rest)), entry);
+            } else {
+                final int index = (int) (codes[s] >>> (rest - bits)) & ((1 << bits) - 1);
+                subLength[index] = Math.max(subLength[index], rest - bits);
+            }
+        }
+        for (int index = 0; index < subLength.length; index++) {
+            if (subLength[index] == 0) continue;
+            final int subBits = Math.min(subLength[index], SUB_BITS);
+            final int sub = build(prefix << bits | index, prefixLength + bits, subBits);
+            table[offset + index] = sub << 8 | LINK | subBits;
+        }
+        return offset;
+    }
+
+    private int allocate(final int n) {
+        if (size + n > table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, size + n));
+        }
+        final int offset = size;
+        size += n;
+        return offset;
+    }
+}
@@ -1,20 +1,159 @@
 package no.flatline;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.lang.Math.min;
+import static no.flatline.MatchFinder.MIN_MATCH;
 
 /**
+ * LZ77 compressor. Repeated content is replaced by a reference back to an earlier copy,
+ * found with the hash chains of {@link MatchFinder}.
+ *
+ * <p>A block is a list of sequences. Each sequence starts with a token byte holding the
+ * number of literals in the high nibble and the match length minus {@link MatchFinder#MIN_MATCH}
+ * in the low nibble, where 15 means the rest follows as a varint. The literals come next,
+ * and then the distance of the match minus one as a varint. The last sequence of a block
+ * ends after its literals.</p>
+ *
  * @author Rolv-Arild Braaten
- * @version 0.0.1
+ * @version 1.0.0
+ * @since 0.0.1
  */
-public class LempelZiv implements Compressor {
+public class LempelZiv extends BlockCompressor {
+
+    /** Default largest distance a match may reach back. */
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+    /** Default number of candidates tried per position. */
+    public static final int DEFAULT_SEARCH_DEPTH = 32;
+
+    /* Match finders are not thread safe, so every worker thread gets its own. */
+    private final ThreadLocal<MatchFinder> finders;
+
+    /**
+     * Default constructor.
+     */
+    public LempelZiv() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_SEARCH_DEPTH);
+    }
+
+    /**
+     * Creates an LZ77 compressor coding blocks on the common pool.
+     *
+     * @param windowSize the largest distance a match may reach back, a power of two up to the block size.
+     * @param searchDepth the number of candidates tried per position. Higher gives better compression, but is slower.
+     */
+    public LempelZiv(int windowSize, int searchDepth) {
+        this(windowSize, searchDepth, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an LZ77 compressor.
+     *
+     * @param windowSize the largest distance a match may reach back, a power of two up to the block size.
+     * @param searchDepth the number of candidates tried per position. Higher gives better compression, but is slower.
+     * @param pool the pool to code blocks on.
+     */
+    public LempelZiv(int windowSize, int searchDepth, ForkJoinPool pool) {
+        super(pool);
+        if (windowSize > BLOCK_SIZE) throw new IllegalArgumentException("Window size can not exceed the block size");
+        new MatchFinder(windowSize, searchDepth); // validates the arguments up front
+        this.finders = ThreadLocal.withInitial(() -> new MatchFinder(windowSize, searchDepth));
+    }
 
     @Override
-    public void compress(File src) {
+    public String getExtension() {
+        return "clz";
+    }
 
+    @Override
+    int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException {
+        long start = System.nanoTime();
+        MatchFinder finder = finders.get();
+        finder.parse(src, 0, len);
+        long parsed = System.nanoTime();
+        listener().phase(CodecListener.Phase.MATCH, parsed - start);
+        int pos = 0;
+        for (int s = 0; s < finder.count; s++) {
+            int literals = finder.literalLengths[s];
+            int match = finder.matchLengths[s];
+            int extra = match == 0 ? 0 : match - MIN_MATCH;
+            payload.write(min(literals, 15) << 4 | min(extra, 15));
+            if (literals >= 15) Container.writeVarInt(payload, literals - 15);
+            payload.write(src, pos, literals);
+            pos += literals;
+            if (match > 0) {
+                if (extra >= 15) Container.writeVarInt(payload, extra - 15);
+                Container.writeVarInt(payload, finder.distances[s] - 1);
+                pos += match;
+            }
+        }
+        listener().phase(CodecListener.Phase.ENCODE, System.nanoTime() - parsed);
+        return Container.LZ77;
     }
 
     @Override
-    public void decompress(File src) {
+    void decodeBlock(int type, byte[] payload, int length, byte[] out, int rawLength) throws IOException {
+        if (type != Container.LZ77) throw new IOException("Unknown block type " + type);
+        int[] in = {0};
+        int op = 0;
+        while (op < rawLength) {
+            int token = readByte(payload, length, in);
+            int literals = token >>> 4;
+            if (literals == 15) literals += readVarInt(payload, length, in);
+            if (literals > rawLength - op || literals > length - in[0]) {
+                throw new IOException("Corrupt LZ77 block");
+            }
+            System.arraycopy(payload, in[0], out, op, literals);
+            in[0] += literals;
+            op += literals;
+            if (op == rawLength) break;
+
+            int match = token & 15;
+            if (match == 15) match += readVarInt(payload, length, in);
+            match += MIN_MATCH;
+            int distance = readVarInt(payload, length, in) + 1;
+            if (distance > op || match > rawLength - op) throw new IOException("Corrupt LZ77 block");
+            copyMatch(out, op, distance, match);
+            op += match;
+        }
+    }
+
+    /**
+     * Copies a match that may overlap its own output, which repeats the last {@code distance} bytes.
+     *
+     * @param out the output buffer.
+     * @param op the position to copy to.
+     * @param distance the distance back to the start of the match.
+     * @param length the length of the match.
+     */
+    static void copyMatch(byte[] out, int op, int distance, int length) {
+        int from = op - distance;
+        if (distance >= length) {
+            System.arraycopy(out, from, out, op, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out[op + i] = out[from + i];
+            }
+        }
+    }
+
+    private static int readByte(byte[] buf, int length, int[] pos) throws IOException {
+        if (pos[0] >= length) throw new IOException("Corrupt LZ77 block");
+        return buf[pos[0]++] & 0xff;
+    }
 
+    private static int readVarInt(byte[] buf, int length, int[] pos) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte(buf, length, pos);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+        throw new IOException("Corrupt LZ77 block");
     }
 }
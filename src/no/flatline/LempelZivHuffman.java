@@ -0,0 +1,211 @@
+package no.flatline;
+
+import no.flatline.io.BitReader;
+import no.flatline.io.BitWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static no.flatline.MatchFinder.MIN_MATCH;
+
+/**
+ * LZ77 followed by Huffman coding, in the style of Deflate.
+ * A block is parsed into LZ77 sequences, and the literals, match lengths and match distances
+ * are then Huffman coded with two length-limited canonical codes from {@link CanonicalCode}:
+ * one shared by literals and match lengths, and one for distances.
+ *
+ * <p>Lengths and distances are coded as a bucket symbol followed by extra bits. Values below 2
+ * have their own symbol. Any other value with its highest set bit at position n gets the symbol
+ * {@code 2n} or {@code 2n + 1}, depending on the bit below it, followed by the remaining
+ * {@code n - 1} bits as they are.</p>
+ *
+ * <p>The payload of a block is the code lengths of both tables, in the compact layout of
+ * {@link CanonicalCode#writeLengths}, followed by the bit stream.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public class LempelZivHuffman extends BlockCompressor {
+
+    /* Literals are symbols 0-255 and the match lengths follow. */
+    private static final int LENGTH_BASE = 256;
+    private static final int LENGTH_SYMBOLS = bucket(MatchFinder.MAX_MATCH - MIN_MATCH) + 1;
+    private static final int LITERAL_LENGTH_SYMBOLS = LENGTH_BASE + LENGTH_SYMBOLS;
+    private static final int DISTANCE_SYMBOLS = bucket(BLOCK_SIZE - 1) + 1;
+
+    /* Match finders are not thread safe, so every worker thread gets its own context. */
+    private final ThreadLocal<Context> contexts;
+
+    /**
+     * Default constructor.
+     */
+    public LempelZivHuffman() {
+        this(LempelZiv.DEFAULT_WINDOW_SIZE, LempelZiv.DEFAULT_SEARCH_DEPTH);
+    }
+
+    /**
+     * Creates an LZ77 and Huffman compressor coding blocks on the common pool.
+     *
+     * @param windowSize the largest distance a match may reach back, a power of two up to the block size.
+     * @param searchDepth the number of candidates tried per position. Higher gives better compression, but is slower.
+     */
+    public LempelZivHuffman(int windowSize, int searchDepth) {
+        this(windowSize, searchDepth, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an LZ77 and Huffman compressor.
+     *
+     * @param windowSize the largest distance a match may reach back, a power of two up to the block size.
+     * @param searchDepth the number of candidates tried per position. Higher gives better compression, but is slower.
+     * @param pool the pool to code blocks on.
+     */
+    public LempelZivHuffman(int windowSize, int searchDepth, ForkJoinPool pool) {
+        super(pool);
+        if (windowSize > BLOCK_SIZE) throw new IllegalArgumentException("Window size can not exceed the block size");
+        new MatchFinder(windowSize, searchDepth); // validates the arguments up front
+        this.contexts = ThreadLocal.withInitial(() -> new Context(new MatchFinder(windowSize, searchDepth)));
+    }
+
+    @Override
+    public String getExtension() {
+        return "clh";
+    }
+
+    @Override
+    int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException {
+        CodecListener listener = listener();
+        long start = System.nanoTime();
+        Context context = contexts.get();
+        MatchFinder finder = context.finder;
+        finder.parse(src, 0, len);
+        long parsed = System.nanoTime();
+        listener.phase(CodecListener.Phase.MATCH, parsed - start);
+
+        /* First count the symbols of both alphabets */
+        long[] literalFreq = context.literalFreq;
+        long[] distanceFreq = context.distanceFreq;
+        Arrays.fill(literalFreq, 0);
+        Arrays.fill(distanceFreq, 0);
+        int pos = 0;
+        for (int s = 0; s < finder.count; s++) {
+            for (int end = pos + finder.literalLengths[s]; pos < end; pos++) {
+                literalFreq[src[pos] & 0xff]++;
+            }
+            if (finder.matchLengths[s] > 0) {
+                literalFreq[LENGTH_BASE + bucket(finder.matchLengths[s] - MIN_MATCH)]++;
+                distanceFreq[bucket(finder.distances[s] - 1)]++;
+                pos += finder.matchLengths[s];
+            }
+        }
+        long counted = System.nanoTime();
+        listener.phase(CodecListener.Phase.COUNT, counted - parsed);
+        int[] literalLengths = CanonicalCode.lengths(literalFreq, CanonicalCode.MAX_LENGTH);
+        int[] distanceLengths = CanonicalCode.lengths(distanceFreq, CanonicalCode.MAX_LENGTH);
+        long[] literalCodes = CanonicalCode.codes(literalLengths);
+        long[] distanceCodes = CanonicalCode.codes(distanceLengths);
+        context.payload.reset();
+        CanonicalCode.writeLengths(context.payload, literalLengths);
+        CanonicalCode.writeLengths(context.payload, distanceLengths);
+
+        long built = System.nanoTime();
+        listener.phase(CodecListener.Phase.BUILD, built - counted);
+
+        /* Now code the sequences */
+        BitWriter bits = context.bits;
+        pos = 0;
+        for (int s = 0; s < finder.count; s++) {
+            for (int end = pos + finder.literalLengths[s]; pos < end; pos++) {
+                int b = src[pos] & 0xff;
+                bits.write(literalCodes[b], literalLengths[b]);
+            }
+            int match = finder.matchLengths[s];
+            if (match > 0) {
+                int symbol = LENGTH_BASE + bucket(match - MIN_MATCH);
+                bits.write(literalCodes[symbol], literalLengths[symbol]);
+                writeExtra(bits, match - MIN_MATCH);
+                symbol = bucket(finder.distances[s] - 1);
+                bits.write(distanceCodes[symbol], distanceLengths[symbol]);
+                writeExtra(bits, finder.distances[s] - 1);
+                pos += match;
+            }
+        }
+        bits.flush();
+        context.payload.writeTo(payload);
+        listener.phase(CodecListener.Phase.ENCODE, System.nanoTime() - built);
+        return Container.LZ77_HUFFMAN;
+    }
+
+    @Override
+    void decodeBlock(int type, byte[] payload, int length, byte[] out, int rawLength) throws IOException {
+        if (type != Container.LZ77_HUFFMAN) throw new IOException("Unknown block type " + type);
+        InputStream in = new ByteArrayInputStream(payload, 0, length);
+        HuffmanDecoder literals = CanonicalCode.decoder(CanonicalCode.readLengths(in, LITERAL_LENGTH_SYMBOLS));
+        HuffmanDecoder distances = CanonicalCode.decoder(CanonicalCode.readLengths(in, DISTANCE_SYMBOLS));
+        BitReader bits = new BitReader(in, 1 << 13);
+        if (literals == null && rawLength > 0) throw new IOException("Corrupt code length table");
+
+        int op = 0;
+        while (op < rawLength) {
+            int symbol = literals.decodeSymbol(bits);
+            if (symbol < LENGTH_BASE) {
+                out[op++] = (byte) symbol;
+                continue;
+            }
+            int match = readExtra(bits, symbol - LENGTH_BASE) + MIN_MATCH;
+            if (distances == null) throw new IOException("Corrupt LZ77 block");
+            int distance = readExtra(bits, distances.decodeSymbol(bits)) + 1;
+            if (distance > op || match > rawLength - op) throw new IOException("Corrupt LZ77 block");
+            LempelZiv.copyMatch(out, op, distance, match);
+            op += match;
+        }
+        bits.checkOverrun();
+    }
+
+    /**
+     * Returns the bucket symbol of a length or distance value.
+     *
+     * @param value the value, at least 0.
+     * @return the symbol of the bucket {@code value} falls in.
+     */
+    static int bucket(int value) {
+        if (value < 2) return value;
+        int n = 31 - Integer.numberOfLeadingZeros(value);
+        return 2 * n + (value >>> (n - 1) & 1);
+    }
+
+    private static void writeExtra(BitWriter bits, int value) throws IOException {
+        if (value >= 2) {
+            int n = 31 - Integer.numberOfLeadingZeros(value) - 1;
+            bits.write(value & ((1 << n) - 1), n);
+        }
+    }
+
+    private static int readExtra(BitReader bits, int symbol) throws IOException {
+        if (symbol < 2) return symbol;
+        int n = (symbol >>> 1) - 1;
+        int base = (2 | symbol & 1) << n;
+        return n == 0 ? base : base | bits.read(n);
+    }
+
+    /**
+     * The match finder, symbol counts and bit writer of one worker thread, reused for every block it codes.
+     */
+    private static final class Context {
+
+        final MatchFinder finder;
+        final long[] literalFreq = new long[LITERAL_LENGTH_SYMBOLS];
+        final long[] distanceFreq = new long[DISTANCE_SYMBOLS];
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream(1 << 16);
+        final BitWriter bits = new BitWriter(payload, 1 << 12);
+
+        Context(MatchFinder finder) {
+            this.finder = finder;
+        }
+    }
+}
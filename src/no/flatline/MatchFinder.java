@@ -0,0 +1,182 @@
+package no.flatline;
+
+import java.util.Arrays;
+
+/**
+ * Finds LZ77 matches with hash chains.
+ * Every position is hashed on its next {@link #MIN_MATCH} bytes. {@code head} holds the most
+ * recent position for each hash and {@code chain} links each position to the previous one
+ * with the same hash, so a search walks back through earlier candidates, newest first.
+ *
+ * <p>A parse splits the input into sequences, each a run of literals followed by a match.
+ * The last sequence of a block may have no match. A finder is not thread safe, but can be
+ * reused for any number of blocks.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+final class MatchFinder {
+
+    static final int MIN_MATCH = 4;
+    static final int MAX_MATCH = 258;
+
+    /* A match of MIN_MATCH bytes further back than this costs more to code than its literals. */
+    private static final int TOO_FAR = 1 << 12;
+
+    /* A match this long is taken without looking for a longer one at the next position. */
+    private static final int LAZY_LENGTH = 32;
+    /* Past a match this long, the next position is searched a quarter as deep. */
+    private static final int GOOD_LENGTH = 8;
+
+    private static final int HASH_BITS = 16;
+    private static final int HASH_MULTIPLIER = 0x9e3779b1;
+
+    private final int windowSize;
+    private final int searchDepth;
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] chain;
+    /* The position after the last one inserted into the hash chains */
+    private int inserted;
+    /* The distance of the match found by the last search */
+    private int foundDistance;
+
+    /** Number of sequences found by the last parse. */
+    int count;
+    /** Number of literals before the match of each sequence. */
+    int[] literalLengths = new int[1 << 10];
+    /** Length of the match of each sequence, 0 if the sequence has no match. */
+    int[] matchLengths = new int[1 << 10];
+    /** Distance back to the start of the match of each sequence. */
+    int[] distances = new int[1 << 10];
+
+    /**
+     * Creates a match finder.
+     *
+     * @param windowSize the largest distance a match may reach back, a power of two.
+     * @param searchDepth the number of candidates to try per position. More finds longer matches, but slower.
+     */
+    MatchFinder(final int windowSize, final int searchDepth) {
+        if (Integer.bitCount(windowSize) != 1) throw new IllegalArgumentException("Window size must be a power of two");
+        if (searchDepth < 1) throw new IllegalArgumentException("Search depth must be positive");
+        this.windowSize = windowSize;
+        this.searchDepth = searchDepth;
+        this.chain = new int[windowSize];
+    }
+
+    /**
+     * Splits a block into sequences. Matches never reach outside the block.
+     *
+     * <p>The parse is lazy: before a match is taken, the next position is searched too, and if it
+     * starts a longer match, the current byte becomes a literal instead. This repeats while each
+     * position finds a longer match than the one before it, up to {@link #LAZY_LENGTH}.</p>
+     *
+     * @param src the array holding the block.
+     * @param off the offset of the block in {@code src}.
+     * @param len the length of the block.
+     */
+    void parse(final byte[] src, final int off, final int len) {
+        Arrays.fill(head, -1);
+        count = 0;
+        final int last = len - MIN_MATCH;
+        int anchor = 0;
+        int i = 0;
+        while (i <= last) {
+            int length = search(src, off, i, len, 0, searchDepth);
+            int distance = foundDistance;
+            if (!worthCoding(length, distance)) {
+                i++;
+                continue;
+            }
+            while (length < LAZY_LENGTH && i < last) {
+                final int depth = length < GOOD_LENGTH ? searchDepth : Math.max(1, searchDepth >> 2);
+                final int next = search(src, off, i + 1, len, length, depth);
+                if (next <= length || !worthCoding(next, foundDistance)) break;
+                i++;
+                length = next;
+                distance = foundDistance;
+            }
+            add(i - anchor, length, distance);
+            final int end = i + length;
+            for (int j = inserted; j < end && j <= last; j++) {
+                insert(src, off, j);
+            }
+            i = end;
+            anchor = end;
+        }
+        if (anchor < len) add(len - anchor, 0, 0);
+    }
+
+    /**
+     * Finds the longest match for position {@code i} among its hash chain and then inserts {@code i}
+     * into the chain. The distance of the match is left in {@link #foundDistance}.
+     *
+     * @param shorter a length the match must exceed, 0 to take any match.
+     * @param depth the number of candidates to try.
+     * @return the length of the match, 0 if none was found.
+     */
+    private int search(final byte[] src, final int off, final int i, final int len,
+                       final int shorter, final int depth) {
+        final int h = hash(src, off + i);
+        final int maxLength = Math.min(MAX_MATCH, len - i);
+        final int mask = windowSize - 1;
+        int bestLength = Math.min(shorter, maxLength - 1);
+        int bestDistance = 0;
+        int candidate = head[h];
+        for (int tries = depth; candidate >= 0 && i - candidate <= windowSize && tries > 0; tries--) {
+            if (src[off + candidate + bestLength] == src[off + i + bestLength]) {
+                final int length = matchLength(src, off + candidate, off + i, maxLength);
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestDistance = i - candidate;
+                    if (length == maxLength) break;
+                }
+            }
+            final int next = chain[candidate & mask];
+            // The slot may have been reused by a newer position once the candidate left the window.
+            if (next >= candidate) break;
+            candidate = next;
+        }
+        chain[i & mask] = head[h];
+        head[h] = i;
+        inserted = i + 1;
+        foundDistance = bestDistance;
+        return bestDistance == 0 ? 0 : bestLength;
+    }
+
+    private void insert(final byte[] src, final int off, final int i) {
+        final int h = hash(src, off + i);
+        chain[i & (windowSize - 1)] = head[h];
+        head[h] = i;
+        inserted = i + 1;
+    }
+
+    private static boolean worthCoding(final int length, final int distance) {
+        return length > MIN_MATCH || length == MIN_MATCH && distance <= TOO_FAR;
+    }
+
+    private void add(final int literalLength, final int matchLength, final int distance) {
+        if (count == literalLengths.length) {
+            literalLengths = Arrays.copyOf(literalLengths, count * 2);
+            matchLengths = Arrays.copyOf(matchLengths, count * 2);
+            distances = Arrays.copyOf(distances, count * 2);
+        }
+        literalLengths[count] = literalLength;
+        matchLengths[count] = matchLength;
+        distances[count] = distance;
+        count++;
+    }
+
+    private static int hash(final byte[] src, final int i) {
+        final int v = (src[i] & 0xff) | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff) << 16 | src[i + 3] << 24;
+        return (v * HASH_MULTIPLIER) >>> (32 - HASH_BITS);
+    }
+
+    private static int matchLength(final byte[] src, final int a, final int b, final int maxLength) {
+        int n = 0;
+        while (n < maxLength && src[a + n] == src[b + n]) {
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,194 @@
+package no.flatline;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A code table trained on a sample corpus, so that small inputs need no table of their own.
+ * A container compressed with a model only holds its ID, and the same model must be given
+ * to decompress it.
+ *
+ * <pre>
+ * magic 'F' 'F' 'M', version, ID (int), code lengths of the 256 byte values
+ * </pre>
+ *
+ * The ID is the CRC32 of the code lengths as stored, so equal models have equal IDs.
+ * Models are kept in resource/models, named after their ID.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class Model {
+
+    /** The file extension of models. */
+    public static final String EXTENSION = "cfm";
+    /** The directory models are saved in. */
+    public static final String DIRECTORY = "resource/models";
+
+    private static final byte[] MAGIC = {'F', 'F', 'M'};
+    private static final int VERSION = 1;
+
+    private final int id;
+    private final int[] table;
+    private final byte[] encodedTable;
+
+    private Model(int[] table, byte[] encodedTable) {
+        CRC32 crc = new CRC32();
+        crc.update(encodedTable);
+        this.id = (int) crc.getValue();
+        this.table = table;
+        this.encodedTable = encodedTable;
+    }
+
+    /**
+     * Creates a model from the byte frequencies of a corpus. Every byte value gets a code,
+     * also those that are not in the corpus.
+     *
+     * @param freq the frequency of every byte value.
+     * @return the model.
+     */
+    static Model of(long[] freq) {
+        long[] smoothed = new long[256];
+        for (int i = 0; i < smoothed.length; i++) {
+            smoothed[i] = freq[i] + 1;
+        }
+        int[] table = CanonicalCode.lengths(smoothed, CanonicalCode.MAX_LENGTH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            CanonicalCode.writeLengths(out, table);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Model(table, out.toByteArray());
+    }
+
+    /**
+     * Trains a model on sample files. Directories are searched for files recursively, and the
+     * files are counted in parallel on the common pool.
+     *
+     * @param samples the sample files and directories.
+     * @return the model.
+     * @throws IOException if a sample can not be read.
+     */
+    public static Model train(Collection<Path> samples) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path sample : samples) {
+            try (Stream<Path> walk = Files.walk(sample)) {
+                walk.filter(Files::isRegularFile).forEach(files::add);
+            }
+        }
+        long[] freq = Histogram.count(files, ForkJoinPool.commonPool());
+        return of(freq);
+    }
+
+    /**
+     * Returns the ID of the model.
+     *
+     * @return the ID.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the model as 8 hexadecimal digits.
+     *
+     * @return the name of the model.
+     */
+    public String getName() {
+        return name(id);
+    }
+
+    static String name(int id) {
+        return String.format("%08x", id);
+    }
+
+    /**
+     * Returns the code length of every byte value.
+     */
+    int[] table() {
+        return table;
+    }
+
+    /**
+     * Writes the model.
+     *
+     * @param out the stream to write to.
+     * @throws IOException if writing fails.
+     */
+    public void write(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        Container.writeInt(out, id);
+        out.write(encodedTable);
+        out.flush();
+    }
+
+    /**
+     * Saves the model in {@link #DIRECTORY}, named after its ID.
+     *
+     * @return the model file.
+     * @throws IOException if the file can not be written.
+     */
+    public File save() throws IOException {
+        Path dir = Paths.get(DIRECTORY);
+        Files.createDirectories(dir);
+        File file = dir.resolve(getName() + "." + EXTENSION).toFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(out);
+        }
+        return file;
+    }
+
+    /**
+     * Reads a model.
+     *
+     * @param in the stream to read from.
+     * @return the model.
+     * @throws IOException if reading fails, or the input is not a valid model.
+     */
+    public static Model read(InputStream in) throws IOException {
+        for (byte b : MAGIC) {
+            if (Container.readByte(in) != b) throw new IOException("File is not a model");
+        }
+        int version = Container.readByte(in);
+        if (version != VERSION) throw new IOException("Unsupported model version " + version);
+        int id = Container.readInt(in);
+        int[] table = CanonicalCode.readLengths(in, 256);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CanonicalCode.writeLengths(out, table);
+        Model model = new Model(table, out.toByteArray());
+        if (model.id != id) throw new IOException("Corrupt model " + name(id));
+        try {
+            CanonicalCode.codes(table);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt model " + name(id), e);
+        }
+        return model;
+    }
+
+    /**
+     * Loads a model from a file, or by its ID from {@link #DIRECTORY}.
+     *
+     * @param model the path of a model file, or the ID of a saved model.
+     * @return the model.
+     * @throws IOException if the model does not exist or is not valid.
+     */
+    public static Model load(String model) throws IOException {
+        File file = new File(model);
+        if (!file.isFile()) file = Paths.get(DIRECTORY, model.toLowerCase() + "." + EXTENSION).toFile();
+        if (!file.isFile()) throw new FileNotFoundException("No model " + model);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return read(in);
+        }
+    }
+}
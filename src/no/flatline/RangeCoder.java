@@ -0,0 +1,198 @@
+package no.flatline;
+
+import no.flatline.io.RangeDecoder;
+import no.flatline.io.RangeEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Range coding with an adaptive order-1 context model, for when ratio matters more than speed.
+ * Every byte is coded with the frequencies seen after the byte before it, so text is coded with
+ * what is likely to follow each letter instead of one table for the whole block as in {@link Huffman}.
+ *
+ * <p>Every context starts with a frequency of 1 for each symbol and adds {@link #INCREMENT} to a
+ * symbol each time it is seen. When the total of a context exceeds {@link RangeEncoder#MAX_TOTAL},
+ * its frequencies are halved, which also lets the model follow data that changes within a block.
+ * The model is rebuilt for every block, so blocks stay independent, and the payload is just the
+ * range coded bytes.</p>
+ *
+ * <p>Learning 256 contexts costs more than it saves on data without structure between neighbouring
+ * bytes. A block whose order-1 coding is not smaller than its order-0 entropy is therefore also coded
+ * with a single adaptive context, and the smaller of the two is kept.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public class RangeCoder extends BlockCompressor {
+
+    private static final int SYMBOLS = 256;
+    private static final int INCREMENT = 24;
+    /* Symbols are summed in groups so that finding a cumulative frequency takes 32 steps instead of 256. */
+    private static final int GROUP_BITS = 4;
+    private static final int GROUPS = SYMBOLS >> GROUP_BITS;
+
+    /* The frequency tables are 256 KB, so every worker thread keeps its own across blocks. */
+    private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+    /**
+     * Default constructor, coding blocks on the common pool.
+     */
+    public RangeCoder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a range coder.
+     *
+     * @param pool the pool to code blocks on.
+     */
+    public RangeCoder(ForkJoinPool pool) {
+        super(pool);
+    }
+
+    @Override
+    public String getExtension() {
+        return "cro";
+    }
+
+    @Override
+    int encodeBlock(byte[] src, int len, ByteArrayOutputStream payload) throws IOException {
+        Context model = contexts.get();
+        encode(model, src, len, true);
+        model.coded.writeTo(payload);
+        if (model.coded.size() * 8.0 < entropy(src, len)) return Container.RANGE_ORDER1;
+
+        int order1 = model.coded.size();
+        encode(model, src, len, false);
+        if (model.coded.size() >= order1) return Container.RANGE_ORDER1;
+        payload.reset();
+        model.coded.writeTo(payload);
+        return Container.RANGE_ORDER0;
+    }
+
+    /**
+     * Range codes a block into {@link Context#coded}.
+     *
+     * @param model the frequency tables and encoder to use.
+     * @param src the block.
+     * @param len the length of the block.
+     * @param order1 whether to code every byte in the context of the byte before it, or all in one context.
+     * @throws IOException if writing fails.
+     */
+    private static void encode(Context model, byte[] src, int len, boolean order1) throws IOException {
+        model.reset();
+        int[] freq = model.freq;
+        int[] groups = model.groups;
+        int[] total = model.total;
+        RangeEncoder encoder = model.encoder;
+        model.coded.reset();
+        encoder.reset();
+        int ctx = 0;
+        for (int i = 0; i < len; i++) {
+            int symbol = src[i] & 0xff;
+            int cumFreq = 0;
+            for (int g = ctx * GROUPS, end = g + (symbol >> GROUP_BITS); g < end; g++) {
+                cumFreq += groups[g];
+            }
+            int index = ctx << 8 | symbol;
+            for (int j = index & -(1 << GROUP_BITS); j < index; j++) {
+                cumFreq += freq[j];
+            }
+            encoder.encode(cumFreq, freq[index], total[ctx]);
+            model.update(ctx, symbol);
+            if (order1) ctx = symbol;
+        }
+        encoder.flush();
+    }
+
+    @Override
+    void decodeBlock(int type, byte[] payload, int length, byte[] out, int rawLength) throws IOException {
+        if (type != Container.RANGE_ORDER1 && type != Container.RANGE_ORDER0) {
+            throw new IOException("Unknown block type " + type);
+        }
+        boolean order1 = type == Container.RANGE_ORDER1;
+        Context model = contexts.get();
+        model.reset();
+        int[] freq = model.freq;
+        int[] groups = model.groups;
+        int[] total = model.total;
+        RangeDecoder decoder = new RangeDecoder(payload, 0, length);
+        int ctx = 0;
+        for (int i = 0; i < rawLength; i++) {
+            int target = decoder.decodeFreq(total[ctx]);
+            int g = ctx * GROUPS;
+            int cumFreq = 0;
+            while (cumFreq + groups[g] <= target) {
+                cumFreq += groups[g++];
+            }
+            int j = g << GROUP_BITS;
+            while (cumFreq + freq[j] <= target) {
+                cumFreq += freq[j++];
+            }
+            decoder.decode(cumFreq, freq[j]);
+            int symbol = j & 0xff;
+            out[i] = (byte) symbol;
+            model.update(ctx, symbol);
+            if (order1) ctx = symbol;
+        }
+        decoder.checkOverrun();
+    }
+
+    /**
+     * Returns the order-0 entropy of a block in bits.
+     */
+    private static double entropy(byte[] src, int len) {
+        int[] counts = new int[SYMBOLS];
+        for (int i = 0; i < len; i++) {
+            counts[src[i] & 0xff]++;
+        }
+        double bits = 0;
+        for (int count : counts) {
+            if (count > 0) bits -= count * Math.log((double) count / len);
+        }
+        return bits / Math.log(2);
+    }
+
+    /**
+     * The frequencies of every order-1 context, 256 symbols per context, with the sum of every
+     * group of symbols and the total of every context. Order-0 coding only uses the first context.
+     * The encoder and the bytes it coded last are kept with them.
+     */
+    private static final class Context {
+
+        final int[] freq = new int[SYMBOLS * SYMBOLS];
+        final int[] groups = new int[SYMBOLS * GROUPS];
+        final int[] total = new int[SYMBOLS];
+        final ByteArrayOutputStream coded = new ByteArrayOutputStream(1 << 16);
+        final RangeEncoder encoder = new RangeEncoder(coded, 1 << 12);
+
+        void reset() {
+            Arrays.fill(freq, 1);
+            Arrays.fill(groups, 1 << GROUP_BITS);
+            Arrays.fill(total, SYMBOLS);
+        }
+
+        void update(int ctx, int symbol) {
+            freq[ctx << 8 | symbol] += INCREMENT;
+            groups[ctx * GROUPS + (symbol >> GROUP_BITS)] += INCREMENT;
+            total[ctx] += INCREMENT;
+            if (total[ctx] > RangeEncoder.MAX_TOTAL) {
+                int sum = 0;
+                for (int g = ctx * GROUPS, end = g + GROUPS; g < end; g++) {
+                    int group = 0;
+                    for (int j = g << GROUP_BITS, groupEnd = j + (1 << GROUP_BITS); j < groupEnd; j++) {
+                        freq[j] = (freq[j] + 1) >>> 1;
+                        group += freq[j];
+                    }
+                    groups[g] = group;
+                    sum += group;
+                }
+                total[ctx] = sum;
+            }
+        }
+    }
+}
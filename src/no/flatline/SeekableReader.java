@@ -0,0 +1,259 @@
+package no.flatline;
+
+import no.flatline.file.FileUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the uncompressed bytes of a compressed file at any offset, decoding only the blocks
+ * that hold them. The blocks are found with the index at the end of the {@link Container},
+ * or by reading the frame headers from the start if the container has no index, which skips
+ * the payloads without decoding them. The last few decoded blocks are kept, so nearby reads
+ * do not decode the same block again.
+ *
+ * <p>The reader is a read-only channel over the uncompressed bytes, and can be read as a
+ * stream with {@link Channels#newInputStream(java.nio.channels.ReadableByteChannel)}.
+ * Its methods are synchronized, so it may be shared between threads.</p>
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class SeekableReader implements SeekableByteChannel {
+
+    /** Default number of decoded blocks kept. */
+    public static final int DEFAULT_CACHED_BLOCKS = 4;
+    private static final int MAX_FRAME_HEADER = Container.MAX_FRAME_HEADER;
+
+    private final FileChannel channel;
+    private final BlockCompressor codec;
+    private final Container.Header header;
+    /* rawOffsets[i] is the uncompressed offset of block i, and rawOffsets[count] the size */
+    private final long[] rawOffsets;
+    private final long[] frameOffsets;
+    /* Decoded blocks in pooled buffers, which are given back when they leave the cache */
+    private final Map<Integer, byte[]> cache;
+    private final BufferPool buffers;
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_HEADER);
+    private long position;
+
+    private SeekableReader(FileChannel channel, BlockCompressor codec, Container.Header header,
+                           long[] rawOffsets, long[] frameOffsets, int cachedBlocks) {
+        this.channel = channel;
+        this.codec = codec;
+        this.header = header;
+        this.rawOffsets = rawOffsets;
+        this.frameOffsets = frameOffsets;
+        this.buffers = codec.bufferPool();
+        this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                if (size() <= cachedBlocks) return false;
+                buffers.release(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Opens a compressed file with the default codec of its extension.
+     *
+     * @param file the compressed file.
+     * @return the open reader, which must be closed.
+     * @throws IOException if the file can not be read or is not a block container.
+     */
+    public static SeekableReader open(File file) throws IOException {
+        Compressor codec;
+        try {
+            codec = Compressor.forExtension(FileUtil.getExtension(file));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        return open(file, codec, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * Opens a compressed file. This is how files coded with a {@link Model} are read.
+     *
+     * @param file the compressed file.
+     * @param codec the codec the file was compressed with.
+     * @param cachedBlocks the number of decoded blocks to keep.
+     * @return the open reader, which must be closed.
+     * @throws IOException if the file can not be read, is not a block container, or needs another codec.
+     * @throws IllegalArgumentException if the codec does not code blocks, or no blocks are to be kept.
+     */
+    public static SeekableReader open(File file, Compressor codec, int cachedBlocks) throws IOException {
+        if (!(codec instanceof BlockCompressor)) throw new IllegalArgumentException("Codec does not code blocks");
+        if (cachedBlocks < 1) throw new IllegalArgumentException("At least one block must be cached");
+        BlockCompressor blocks = (BlockCompressor) codec;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            InputStream in = Channels.newInputStream(channel.position(0));
+            if (Container.readByte(in) != Container.MAGIC[0]) throw new IOException("File is not valid format");
+            Container.Header header = Container.readHeader(in);
+            blocks.checkHeader(header);
+            Container.Layout layout = Container.readLayout(channel, header);
+            return new SeekableReader(channel, blocks, header, layout.rawOffsets, layout.frameOffsets, cachedBlocks);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads bytes from the current position, decoding the blocks that hold them.
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        int n = read(dst, position);
+        if (n > 0) position += n;
+        return n;
+    }
+
+    /**
+     * Reads bytes from a given offset without moving the position of the reader.
+     *
+     * @param dst the buffer to read into.
+     * @param offset the uncompressed offset to read from.
+     * @return the number of bytes read, or -1 if the offset is at or past the end.
+     * @throws IOException if reading fails or a block is corrupt.
+     */
+    public synchronized int read(ByteBuffer dst, long offset) throws IOException {
+        ensureOpen();
+        if (offset < 0) throw new IllegalArgumentException("Negative offset");
+        if (offset >= size()) return -1;
+        int read = 0;
+        while (dst.hasRemaining() && offset < size()) {
+            int block = block(offset);
+            byte[] bytes = decoded(block);
+            int from = (int) (offset - rawOffsets[block]);
+            int n = (int) Math.min(dst.remaining(), rawOffsets[block + 1] - offset);
+            dst.put(bytes, from, n);
+            offset += n;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Returns the block holding an uncompressed offset.
+     */
+    private int block(long offset) {
+        int i = Arrays.binarySearch(rawOffsets, offset);
+        /* Empty blocks share their offset with the next one, so the last block starting there is taken */
+        if (i >= 0) {
+            while (i + 1 < frameOffsets.length && rawOffsets[i + 1] == offset) i++;
+            return i;
+        }
+        return -i - 2;
+    }
+
+    /**
+     * Returns a decoded block, from the cache if it was decoded recently.
+     */
+    private byte[] decoded(int block) throws IOException {
+        byte[] bytes = cache.get(block);
+        if (bytes != null) return bytes;
+        long offset = frameOffsets[block];
+        frame.clear();
+        frame.limit((int) Math.min(MAX_FRAME_HEADER, channel.size() - offset));
+        Container.readFully(channel, frame, offset);
+        InputStream in = new ByteArrayInputStream(frame.array(), 0, frame.limit());
+        int type = Container.readByte(in);
+        int rawLength = Container.readVarInt(in);
+        int length = Container.readVarInt(in);
+        boolean checked = header.has(Container.FLAG_CHECKSUM);
+        int checksum = checked ? Container.readInt(in) : 0;
+        if (rawLength != rawOffsets[block + 1] - rawOffsets[block]) throw new IOException("Corrupt block index");
+        Container.checkFrame(header, rawLength, length);
+        long payloadOffset = offset + frame.limit() - in.available();
+        if (length > channel.size() - payloadOffset) throw new IOException("Corrupt block index");
+        byte[] payload = buffers.acquire(length);
+        try {
+            Container.readFully(channel, ByteBuffer.wrap(payload, 0, length), payloadOffset);
+            bytes = buffers.acquire(rawLength);
+            try {
+                codec.decodeChecked(type, payload, length, bytes, rawLength, checked, checksum);
+            } catch (IOException | RuntimeException e) {
+                buffers.release(bytes);
+                throw e;
+            }
+        } finally {
+            buffers.release(payload);
+        }
+        cache.put(block, bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the number of blocks in the container.
+     *
+     * @return the block count.
+     */
+    public int getBlockCount() {
+        return frameOffsets.length;
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableReader position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("Negative position");
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * Returns the uncompressed size of the file.
+     */
+    @Override
+    public long size() {
+        return rawOffsets[rawOffsets.length - 1];
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (byte[] bytes : cache.values()) {
+            buffers.release(bytes);
+        }
+        cache.clear();
+        channel.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!channel.isOpen()) throw new ClosedChannelException();
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.io.FilenameUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,18 +18,35 @@ public final class FileUtil {
         Path filePath = Paths.get(path, filename);
         String baseFilename = FilenameUtils.getBaseName(filename);
         String extension = FilenameUtils.getExtension(filename);
-        for (int i = 1; filePath.toFile().exists(); i++) {
-            filePath = Paths.get(path, baseFilename + " (" + i + ")." + extension);
+        for (int i = 1; ; i++) {
+            try {
+                return Files.createFile(filePath).toFile();
+            } catch (FileAlreadyExistsException e) {
+                filePath = Paths.get(path, baseFilename + " (" + i + ")." + extension);
+            }
         }
-        return Files.createFile(filePath).toFile();
     }
 
     public static File createFile(String path, String filename, String extension) throws IOException {
         Path filePath = Paths.get(path, filename + "." + extension);
-        for (int i = 1; filePath.toFile().exists(); i++) {
-            filePath = Paths.get(path, filename + " (" + i + ")." + extension);
+        for (int i = 1; ; i++) {
+            try {
+                return Files.createFile(filePath).toFile();
+            } catch (FileAlreadyExistsException e) {
+                filePath = Paths.get(path, filename + " (" + i + ")." + extension);
+            }
+        }
+    }
+
+    public static File createDirectory(String path, String name) throws IOException {
+        Path dirPath = Paths.get(path, name);
+        for (int i = 1; ; i++) {
+            try {
+                return Files.createDirectory(dirPath).toFile();
+            } catch (FileAlreadyExistsException e) {
+                dirPath = Paths.get(path, name + " (" + i + ")");
+            }
         }
-        return Files.createFile(filePath).toFile();
     }
 
     public static String getBaseName(File file) {
@@ -0,0 +1,128 @@
+package no.flatline.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads bits, most significant bit first, from an input stream.
+ * Up to 64 bits are kept in an accumulator so callers can peek at the next
+ * few bits, look them up in a table and then consume only as many as they used.
+ * Reading past the end of the stream yields zero bits; {@link #checkOverrun()}
+ * reports whether any of those were actually consumed.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class BitReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buf;
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    /* Buffered bits, right aligned. Only the lowest count bits are meaningful. */
+    private long acc;
+    private int count;
+    /* Number of zero bits appended to acc after the end of the stream. */
+    private int padding;
+
+    /**
+     * Creates a bit reader with a default sized buffer.
+     *
+     * @param in the stream to read bits from.
+     */
+    public BitReader(InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a bit reader.
+     *
+     * @param in the stream to read bits from.
+     * @param bufferSize the number of bytes to read from {@code in} at a time.
+     */
+    public BitReader(InputStream in, int bufferSize) {
+        if (bufferSize < 8) throw new IllegalArgumentException("Buffer size must be at least 8 bytes");
+        this.in = in;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Returns the next {@code n} bits without consuming them.
+     *
+     * @param n the number of bits to peek at, between 1 and 32.
+     * @return the next {@code n} bits, right aligned.
+     * @throws IOException if the underlying stream fails.
+     */
+    public int peek(int n) throws IOException {
+        if (count < n) refill();
+        return (int) (acc >>> (count - n)) & (int) ((1L << n) - 1);
+    }
+
+    /**
+     * Skips {@code n} bits. The bits must have been made available by a preceding {@link #peek(int)}.
+     *
+     * @param n the number of bits to skip.
+     */
+    public void consume(int n) {
+        count -= n;
+    }
+
+    /**
+     * Reads the next {@code n} bits.
+     *
+     * @param n the number of bits to read, between 1 and 32.
+     * @return the bits read, right aligned.
+     * @throws IOException if the underlying stream fails.
+     */
+    public int read(int n) throws IOException {
+        int bits = peek(n);
+        count -= n;
+        return bits;
+    }
+
+    /**
+     * Skips the remaining bits of the current byte.
+     */
+    public void alignToByte() {
+        count -= count & 7;
+    }
+
+    /**
+     * Throws if bits beyond the end of the stream have been consumed.
+     *
+     * @throws EOFException if the stream ended in the middle of the data that was read.
+     */
+    public void checkOverrun() throws EOFException {
+        if (count < padding) throw new EOFException("Unexpected end of bit stream");
+    }
+
+    private void refill() throws IOException {
+        while (count <= 56) {
+            if (pos == limit) {
+                if (eof || !fillBuffer()) {
+                    eof = true;
+                    acc <<= 8;
+                    count += 8;
+                    padding += 8;
+                    continue;
+                }
+            }
+            acc = (acc << 8) | (buf[pos++] & 0xff);
+            count += 8;
+        }
+    }
+
+    private boolean fillBuffer() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+}
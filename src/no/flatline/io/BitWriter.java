@@ -0,0 +1,128 @@
+package no.flatline.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes variable-length bit codes, most significant bit first, to an output stream.
+ * Pending bits are kept in a 64-bit accumulator and drained into a byte buffer
+ * 32 bits at a time, so writing a code costs a couple of shifts instead of
+ * building a string of '0' and '1' characters.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class BitWriter implements Flushable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+
+    /* Pending bits, right aligned. Only the lowest count bits are meaningful. */
+    private long acc;
+    private int count;
+
+    /**
+     * Creates a bit writer with a default sized buffer.
+     *
+     * @param out the stream the encoded bytes are written to.
+     */
+    public BitWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a bit writer.
+     *
+     * @param out the stream the encoded bytes are written to.
+     * @param bufferSize the number of bytes to buffer before writing to {@code out}.
+     */
+    public BitWriter(OutputStream out, int bufferSize) {
+        if (bufferSize < 8) throw new IllegalArgumentException("Buffer size must be at least 8 bytes");
+        this.out = out;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Writes the lowest {@code length} bits of {@code code}, most significant bit first.
+     *
+     * @param code the bits to write. Bits above {@code length} must be zero.
+     * @param length the number of bits to write, between 0 and 64.
+     * @throws IOException if the underlying stream fails.
+     */
+    public void write(long code, int length) throws IOException {
+        if (length > 32) {
+            write(code >>> 32, length - 32);
+            code &= 0xffffffffL;
+            length = 32;
+        }
+        acc = (acc << length) | code;
+        count += length;
+        if (count >= 32) {
+            count -= 32;
+            putInt((int) (acc >>> count));
+        }
+    }
+
+    /**
+     * Writes a single byte. Equivalent to {@code write(b & 0xff, 8)}.
+     *
+     * @param b the byte to write.
+     * @throws IOException if the underlying stream fails.
+     */
+    public void writeByte(int b) throws IOException {
+        write(b & 0xff, 8);
+    }
+
+    /**
+     * Pads the pending bits with zeros up to the next byte boundary.
+     *
+     * @throws IOException if the underlying stream fails.
+     */
+    public void alignToByte() throws IOException {
+        int pad = -count & 7;
+        if (pad != 0) write(0, pad);
+        while (count >= 8) {
+            count -= 8;
+            putByte((int) (acc >>> count));
+        }
+    }
+
+    /**
+     * Pads to a byte boundary and writes all buffered bytes to the underlying stream.
+     *
+     * @throws IOException if the underlying stream fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        alignToByte();
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    private void putByte(int b) throws IOException {
+        if (pos == buf.length) drain();
+        buf[pos++] = (byte) b;
+    }
+
+    private void putInt(int v) throws IOException {
+        if (pos + 4 > buf.length) drain();
+        buf[pos] = (byte) (v >>> 24);
+        buf[pos + 1] = (byte) (v >>> 16);
+        buf[pos + 2] = (byte) (v >>> 8);
+        buf[pos + 3] = (byte) v;
+        pos += 4;
+    }
+
+    private void drain() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
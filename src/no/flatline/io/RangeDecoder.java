@@ -0,0 +1,85 @@
+package no.flatline.io;
+
+import java.io.EOFException;
+
+import static no.flatline.io.RangeEncoder.MASK;
+import static no.flatline.io.RangeEncoder.TOP;
+
+/**
+ * Decodes what a {@link RangeEncoder} wrote. A symbol is decoded in two steps:
+ * {@link #decodeFreq} finds the cumulative frequency the next symbol covers, and once
+ * the caller has looked up which symbol that is, {@link #decode} removes it from the range.
+ * Reading past the end of the input yields zero bytes; {@link #checkOverrun()}
+ * reports whether any of those were consumed, which a complete stream never does.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class RangeDecoder {
+
+    private final byte[] buf;
+    private int pos;
+    private final int limit;
+
+    private long code;
+    private long range = MASK;
+    /* The range divided by the total of the symbol being decoded. */
+    private long step;
+
+    /**
+     * Creates a range decoder.
+     *
+     * @param buf the encoded bytes.
+     * @param off the offset of the first encoded byte.
+     * @param len the number of encoded bytes.
+     */
+    public RangeDecoder(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.limit = off + len;
+        for (int i = 0; i < 5; i++) {
+            code = (code << 8 | next()) & MASK;
+        }
+    }
+
+    /**
+     * Returns the cumulative frequency within the next symbol's range.
+     *
+     * @param total the total frequency of all symbols, at most {@link RangeEncoder#MAX_TOTAL}.
+     * @return a value from the symbol's cumulative frequency up to, but not including, that plus its frequency.
+     */
+    public int decodeFreq(int total) {
+        step = range / total;
+        return (int) Math.min(code / step, total - 1);
+    }
+
+    /**
+     * Removes the symbol found with the last call to {@link #decodeFreq} from the range.
+     *
+     * @param cumFreq the total frequency of the symbols before it.
+     * @param freq the frequency of the symbol.
+     */
+    public void decode(int cumFreq, int freq) {
+        code -= step * cumFreq;
+        range = step * freq;
+        while (range < TOP) {
+            range <<= 8;
+            code = (code << 8 | next()) & MASK;
+        }
+    }
+
+    /**
+     * Checks that decoding did not read past the end of the input.
+     *
+     * @throws EOFException if it did.
+     */
+    public void checkOverrun() throws EOFException {
+        if (pos > limit) throw new EOFException("Unexpected end of range coded stream");
+    }
+
+    private int next() {
+        if (pos++ < limit) return buf[pos - 1] & 0xff;
+        return 0;
+    }
+}
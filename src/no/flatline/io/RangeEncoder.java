@@ -0,0 +1,124 @@
+package no.flatline.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Range encoder for symbols given as a cumulative frequency range out of a total.
+ * The low end of the range is kept in 64 bits so that a carry out of the top byte can be
+ * propagated into bytes that have already been produced; those are held back as a cached
+ * byte followed by a run of 0xff bytes until the carry is known.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 1.0.0
+ * @since 1.1.0
+ */
+public final class RangeEncoder implements Flushable {
+
+    /** Largest total frequency the coder supports. */
+    public static final int MAX_TOTAL = 1 << 16;
+    static final long TOP = 1L << 24;
+    static final long MASK = 0xffffffffL;
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int pos;
+
+    private long low;
+    private long range = MASK;
+    /* The byte held back in case a carry reaches it, and the number of bytes held back in total. */
+    private int cache;
+    private long cacheSize = 1;
+
+    /**
+     * Creates a range encoder with a default sized buffer.
+     *
+     * @param out the stream the encoded bytes are written to.
+     */
+    public RangeEncoder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a range encoder.
+     *
+     * @param out the stream the encoded bytes are written to.
+     * @param bufferSize the number of bytes to collect before writing them to {@code out}.
+     */
+    public RangeEncoder(OutputStream out, int bufferSize) {
+        if (bufferSize < 1) throw new IllegalArgumentException("Buffer size must be positive");
+        this.out = out;
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Starts a new range, so that the encoder can code another message after {@link #flush()}.
+     */
+    public void reset() {
+        pos = 0;
+        low = 0;
+        range = MASK;
+        cache = 0;
+        cacheSize = 1;
+    }
+
+    /**
+     * Encodes a symbol.
+     *
+     * @param cumFreq the total frequency of the symbols before it.
+     * @param freq the frequency of the symbol, at least 1.
+     * @param total the total frequency of all symbols, at most {@link #MAX_TOTAL}.
+     * @throws IOException if the underlying stream fails.
+     */
+    public void encode(int cumFreq, int freq, int total) throws IOException {
+        long r = range / total;
+        low += r * cumFreq;
+        range = r * freq;
+        while (range < TOP) {
+            range <<= 8;
+            shiftLow();
+        }
+    }
+
+    /**
+     * Writes the rest of the range and all buffered bytes to the underlying stream.
+     * Nothing may be encoded afterwards until {@link #reset()}.
+     *
+     * @throws IOException if the underlying stream fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            shiftLow();
+        }
+        if (pos > 0) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        out.flush();
+    }
+
+    private void shiftLow() throws IOException {
+        if (low < 0xff000000L || low > MASK) {
+            int carry = (int) (low >>> 32);
+            int b = cache;
+            do {
+                putByte(b + carry);
+                b = 0xff;
+            } while (--cacheSize != 0);
+            cache = (int) (low >>> 24) & 0xff;
+        }
+        cacheSize++;
+        low = (low & 0x00ffffffL) << 8;
+    }
+
+    private void putByte(int b) throws IOException {
+        if (pos == buf.length) {
+            out.write(buf, 0, pos);
+            pos = 0;
+        }
+        buf[pos++] = (byte) b;
+    }
+}
@@ -0,0 +1,190 @@
+import no.flatline.Huffman;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the options, output naming and standard streams of {@link FlatFiles}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class FlatFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+    private static byte[] text(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(12));
+        }
+        return data;
+    }
+
+    private int run(InputStream stdin, String... args) {
+        stdout.reset();
+        stderr.reset();
+        return FlatFiles.run(args, stdin, stdout, new PrintStream(stderr, true));
+    }
+
+    private int run(String... args) {
+        return run(new ByteArrayInputStream(new byte[0]), args);
+    }
+
+    private File file(String name, byte[] data) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void filesAreCodedNextToTheirInput() throws Exception {
+        byte[] data = text(100_000);
+        File src = file("log.txt", data);
+        assertEquals(0, run("-q", src.getPath()));
+        File compressed = new File(folder.getRoot(), "log.txt.cff");
+        assertTrue(compressed.length() < data.length);
+        assertEquals("", stderr.toString());
+
+        assertTrue(src.delete());
+        assertEquals(0, run("-d", compressed.getPath()));
+        assertArrayEquals(data, read(src));
+        assertTrue(stderr.toString().startsWith("Decompressed " + compressed.getPath()));
+
+        assertEquals(0, run("-t", compressed.getPath()));
+        assertTrue(stderr.toString().contains(" -> " + data.length + " bytes"));
+    }
+
+    @Test
+    public void codecAndOutputCanBeGiven() throws Exception {
+        byte[] data = text(50_000);
+        File src = file("log.txt", data);
+        assertEquals(0, run("-q", "--codec", "lz77", "-3", src.getPath()));
+        File compressed = new File(folder.getRoot(), "log.txt.clz");
+        assertTrue(compressed.isFile());
+
+        /* The codec of a compressed file is taken from its extension */
+        File out = new File(folder.getRoot(), "copy");
+        assertEquals(0, run("-q", "-d", "--output=" + out.getPath(), compressed.getPath()));
+        assertArrayEquals(data, read(out));
+
+        assertEquals(1, run("-d", src.getPath()));
+        assertTrue(stderr.toString().contains("Unknown codec txt"));
+        assertEquals(1, run("-d", "--codec", "huffman", src.getPath()));
+        assertTrue(stderr.toString().contains("give the output with -o"));
+    }
+
+    @Test
+    public void existingFilesAreOnlyOverwrittenWhenForced() throws Exception {
+        File src = file("log.txt", text(10_000));
+        byte[] old = "keep me".getBytes("US-ASCII");
+        File compressed = file("log.txt.cff", old);
+        assertEquals(1, run(src.getPath()));
+        assertTrue(stderr.toString().contains("exists, overwrite it with -f"));
+        assertArrayEquals(old, read(compressed));
+
+        assertEquals(0, run("-q", "-f", src.getPath()));
+        assertTrue(read(compressed).length > old.length);
+    }
+
+    @Test
+    public void failedInputsDoNotStopTheOthers() throws Exception {
+        File src = file("log.txt", text(10_000));
+        File missing = new File(folder.getRoot(), "missing.txt");
+        assertEquals(1, run("-q", missing.getPath(), src.getPath()));
+        assertTrue(stderr.toString().startsWith("Could not compress " + missing.getPath()));
+        assertTrue(new File(folder.getRoot(), "log.txt.cff").isFile());
+        assertFalse(new File(folder.getRoot(), "missing.txt.cff").exists());
+    }
+
+    @Test
+    public void standardInputIsCodedToStandardOutput() throws Exception {
+        byte[] data = text(300_000);
+        assertEquals(0, run(new ByteArrayInputStream(data), "-q", "-2"));
+        byte[] compressed = stdout.toByteArray();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Huffman huffman = new Huffman();
+        huffman.setBlockSize(8192);
+        huffman.compress(new ByteArrayInputStream(data), expected);
+        assertArrayEquals(expected.toByteArray(), compressed);
+
+        assertEquals(0, run(new ByteArrayInputStream(compressed), "-q", "-d", "-"));
+        assertArrayEquals(data, stdout.toByteArray());
+
+        /* Verifying reports the decoded bytes and writes nothing */
+        assertEquals(0, run(new ByteArrayInputStream(compressed), "-t"));
+        assertEquals(0, stdout.size());
+        assertTrue(stderr.toString(), stderr.toString().startsWith(
+                "Verified standard input: " + compressed.length + " -> " + data.length + " bytes"));
+    }
+
+    @Test
+    public void appendingUsesTheCodecOfTheTarget() throws Exception {
+        byte[] data = text(200_000);
+        File src = file("log.txt", Arrays.copyOf(data, 120_000));
+        assertEquals(0, run("-q", "--codec", "lz77", src.getPath()));
+        File compressed = new File(folder.getRoot(), "log.txt.clz");
+
+        Files.write(src.toPath(), data);
+        assertEquals(0, run("-c", "-a", "-o", compressed.getPath(), src.getPath()));
+        /* The only block was not full, so it is coded again with the new bytes */
+        assertTrue(stderr.toString().startsWith("Appended 200000 new bytes of " + src.getPath()));
+        File out = new File(folder.getRoot(), "copy");
+        assertEquals(0, run("-q", "-d", "-o", out.getPath(), compressed.getPath()));
+        assertArrayEquals(data, read(out));
+
+        /* A codec that does not match the target is refused before the target is touched */
+        byte[] before = read(compressed);
+        Files.write(src.toPath(), text(250_000));
+        assertEquals(1, run("-a", "--codec", "range", "-o", compressed.getPath(), src.getPath()));
+        assertTrue(stderr.toString(), stderr.toString().contains("can not be appended to with this codec"));
+        assertArrayEquals(before, read(compressed));
+    }
+
+    @Test
+    public void invalidArgumentsExitWithUsage() {
+        String[][] invalid = {
+                {"--bogus"},
+                {"-o"},
+                {"-o", "out", "a", "b"},
+                {"-t", "-o", "out", "a"},
+                {"--level", "0"},
+                {"--codec", "zip"},
+                {"-j", "none"},
+                {"-m", "model", "--codec", "lz77"},
+                {"-a", "-d", "a"},
+                {"-a"},
+                {"-a", "-f", "a"},
+        };
+        for (String[] args : invalid) {
+            assertEquals(String.join(" ", args), 2, run(args));
+            assertTrue(stderr.toString().contains("Usage: FlatFiles"));
+        }
+        assertEquals(0, run("-c", "--help"));
+        assertTrue(stdout.toString().startsWith("Usage: FlatFiles"));
+    }
+}
@@ -0,0 +1,108 @@
+package no.flatline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the coding {@link Adaptive} picks for different kinds of blocks.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class AdaptiveTest {
+
+    /* The first frame type follows the magic, version, flags and block size */
+    private static final int FIRST_FRAME = Container.MAGIC.length + 3;
+
+    private final Adaptive adaptive = new Adaptive();
+
+    private byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        adaptive.compress(new ByteArrayInputStream(data), out);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        adaptive.decompress(new ByteArrayInputStream(out.toByteArray()), decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+        return out.toByteArray();
+    }
+
+    @Test
+    public void randomBlocksAreStored() throws Exception {
+        byte[] data = new byte[BlockCompressor.BLOCK_SIZE + 1000];
+        new Random(15).nextBytes(data);
+        byte[] compressed = compress(data);
+        assertEquals(Container.STORED, compressed[FIRST_FRAME]);
+        /* Header, two frame headers with their checksums, the end and the index of the two frames */
+        assertTrue(compressed.length - data.length + " bytes added", compressed.length <= data.length + 50);
+    }
+
+    @Test
+    public void repeatsGoToLempelZiv() throws Exception {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(16);
+        String[] words = {"block", "frame", "table", "code", "length", "the", "of", "a", "stored"};
+        while (text.length() < 100_000) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+        }
+        byte[] data = text.toString().getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Container.LZ77_HUFFMAN, compress(data)[FIRST_FRAME]);
+    }
+
+    @Test
+    public void skewedBytesAreHuffmanCoded() throws Exception {
+        byte[] data = new byte[100_000];
+        Random random = new Random(17);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Math.abs(random.nextGaussian() * 8);
+        }
+        byte[] compressed = compress(data);
+        assertEquals(Container.HUFFMAN_STREAMS, compressed[FIRST_FRAME]);
+        assertTrue(compressed.length < data.length * 0.6);
+    }
+
+    @Test
+    public void tinyInputsAreNeverExpandedBeyondTheFrame() throws Exception {
+        for (int size = 1; size < 40; size++) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            assertTrue("size " + size, compress(data).length <= size + FIRST_FRAME + 4 + Integer.BYTES);
+        }
+    }
+
+    @Test
+    public void containersWithoutChecksumsStillDecode() throws Exception {
+        byte[] data = "written before frames had checksums".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Container.writeHeader(out, new Container.Header(0, BlockCompressor.BLOCK_SIZE, 0));
+        Container.writeFrame(out, Container.STORED, data.length, data.length);
+        out.write(data);
+        out.write(Container.END);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        adaptive.decompress(new ByteArrayInputStream(out.toByteArray()), decompressed);
+        assertArrayEquals(data, decompressed.toByteArray());
+    }
+
+    @Test
+    public void corruptStoredBlockFailsChecksum() throws Exception {
+        byte[] data = new byte[10_000];
+        new Random(3).nextBytes(data);
+        byte[] compressed = compress(data);
+        assertEquals(Container.STORED, compressed[FIRST_FRAME]);
+        compressed[compressed.length - 100]++;
+        try {
+            adaptive.decompress(new ByteArrayInputStream(compressed), new ByteArrayOutputStream());
+            fail("Corrupt block decompressed without error");
+        } catch (IOException e) {
+            assertEquals("Block checksum mismatch", e.getMessage());
+        }
+    }
+}
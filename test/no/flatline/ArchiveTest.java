@@ -0,0 +1,142 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class ArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Creates a directory tree of small messages, an empty file and a larger random file.
+     */
+    private Path tree() throws IOException {
+        Path dir = folder.newFolder("tree").toPath();
+        Random random = new Random(11);
+        Files.createDirectories(dir.resolve("a/b"));
+        for (int i = 0; i < 50; i++) {
+            String message = "{\"id\":" + random.nextInt(100000) + ",\"status\":\"ok\",\"user\":\"user" + i + "\"}";
+            Files.write(dir.resolve((i % 2 == 0 ? "a/" : "a/b/") + "msg-" + i + ".json"), message.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.write(dir.resolve("empty.txt"), new byte[0]);
+        byte[] big = new byte[300_000];
+        random.nextBytes(big);
+        Files.write(dir.resolve("big.bin"), big);
+        return dir;
+    }
+
+    private File write(Path dir, Compressor codec, boolean shareTable) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            Archive.write(dir, out, codec, shareTable);
+        }
+        return file;
+    }
+
+    private static byte[] extract(Archive archive, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        archive.extract(archive.getEntry(name), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void everyEntryRoundTrips() throws Exception {
+        Path dir = tree();
+        for (Compressor codec : new Compressor[]{new Huffman(), new LempelZiv(), new LempelZivHuffman(), new RangeCoder(), new Adaptive()}) {
+            try (Archive archive = Archive.open(write(dir, codec, false))) {
+                assertEquals(52, archive.getEntries().size());
+                for (Archive.Entry entry : archive.getEntries()) {
+                    byte[] expected = Files.readAllBytes(dir.resolve(entry.getName()));
+                    assertEquals(expected.length, entry.getSize());
+                    assertArrayEquals(entry.getName(), expected, extract(archive, entry.getName()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharedTableIsSmallerForSimilarEntries() throws Exception {
+        Path dir = tree();
+        Files.delete(dir.resolve("big.bin"));
+        long own = compressedSize(write(dir, new Huffman(), false));
+        File shared = write(dir, new Huffman(), true);
+        assertTrue(compressedSize(shared) + " vs " + own, compressedSize(shared) < own / 2);
+        try (Archive archive = Archive.open(shared)) {
+            String name = "a/b/msg-7.json";
+            assertArrayEquals(Files.readAllBytes(dir.resolve(name)), extract(archive, name));
+        }
+    }
+
+    /* The coded size of the entries, without the checksum every entry has in its single frame either way */
+    private static long compressedSize(File file) throws IOException {
+        long size = 0;
+        try (Archive archive = Archive.open(file)) {
+            for (Archive.Entry entry : archive.getEntries()) {
+                size += entry.getCompressedSize() - Integer.BYTES;
+            }
+        }
+        return size;
+    }
+
+    @Test
+    public void singleEntryIsExtractedAlone() throws Exception {
+        Path dir = tree();
+        File file = write(dir, new Huffman(), false);
+        Archive.Entry big;
+        try (Archive archive = Archive.open(file)) {
+            big = archive.getEntry("big.bin");
+        }
+        /* Corrupting one entry does not affect extracting another */
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(big.getOffset() + big.getCompressedSize() / 2);
+            raf.write(raf.read() ^ 0x10);
+        }
+        try (Archive archive = Archive.open(file)) {
+            assertArrayEquals(Files.readAllBytes(dir.resolve("a/msg-0.json")), extract(archive, "a/msg-0.json"));
+            try {
+                extract(archive, "big.bin");
+                fail("Corrupt entry extracted without error");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void extractsIntoDirectory() throws Exception {
+        Path dir = tree();
+        Path out = folder.newFolder("out").toPath();
+        try (Archive archive = Archive.open(write(dir, new Huffman(), true))) {
+            archive.extract(Collections.singletonList("a/b/msg-1.json"), out);
+        }
+        assertArrayEquals(Files.readAllBytes(dir.resolve("a/b/msg-1.json")), Files.readAllBytes(out.resolve("a/b/msg-1.json")));
+        assertFalse(Files.exists(out.resolve("big.bin")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), new byte[100]);
+        Archive.open(file).close();
+    }
+}
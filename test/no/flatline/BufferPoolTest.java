@@ -0,0 +1,98 @@
+package no.flatline;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the size classes, retention limit and leak detection of {@link BufferPool}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizesAreRoundedUpToTheirClass() {
+        BufferPool pool = new BufferPool(false);
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(0).length);
+        assertEquals(BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE).length);
+        assertEquals(2 * BufferPool.MIN_SIZE, pool.acquire(BufferPool.MIN_SIZE + 1).length);
+        assertEquals(1 << 20, pool.acquire(1_000_000).length);
+        assertEquals(BufferPool.MAX_SIZE + 1, pool.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        BufferPool pool = new BufferPool(false);
+        byte[] buf = pool.acquire(70_000);
+        pool.release(buf);
+        assertSame(buf, pool.acquire(100_000));
+        assertNotSame(buf, pool.acquire(100_000));
+
+        byte[] large = pool.acquire(BufferPool.MAX_SIZE + 1);
+        pool.release(large);
+        assertNotSame(large, pool.acquire(BufferPool.MAX_SIZE + 1));
+    }
+
+    @Test
+    public void freeBuffersOfAllClassesShareOneLimit() {
+        BufferPool pool = new BufferPool(1 << 16, false);
+        byte[][] bufs = new byte[4][];
+        for (int i = 0; i < bufs.length; i++) {
+            bufs[i] = pool.acquire(1 << 14);
+        }
+        byte[] small = pool.acquire(BufferPool.MIN_SIZE);
+        for (byte[] buf : bufs) {
+            pool.release(buf);
+        }
+        assertEquals(1 << 16, pool.retained());
+        /* The limit is reached, so a buffer of another class is dropped */
+        pool.release(small);
+        assertEquals(1 << 16, pool.retained());
+        assertNotSame(small, pool.acquire(BufferPool.MIN_SIZE));
+        assertSame(bufs[0], pool.acquire(1 << 14));
+        assertEquals(3 << 14, pool.retained());
+
+        BufferPool none = new BufferPool(0, false);
+        byte[] buf = none.acquire(10);
+        none.release(buf);
+        assertEquals(0, none.retained());
+        assertNotSame(buf, none.acquire(10));
+    }
+
+    @Test
+    public void debugModeReportsLeaks() {
+        BufferPool pool = new BufferPool(true);
+        byte[] kept = pool.acquire(10);
+        byte[] released = pool.acquire(10);
+        pool.release(released);
+        assertEquals(1, pool.leaks().size());
+        pool.release(kept);
+        assertEquals(Collections.emptyList(), pool.leaks());
+    }
+
+    @Test
+    public void debugModeRejectsReleasingTwice() {
+        BufferPool pool = new BufferPool(true);
+        byte[] buf = pool.acquire(10);
+        pool.release(buf);
+        try {
+            pool.release(buf);
+            fail("Released a buffer twice");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            pool.release(new byte[BufferPool.MIN_SIZE]);
+            fail("Released a buffer the pool did not hand out");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+}
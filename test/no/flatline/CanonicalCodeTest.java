@@ -0,0 +1,101 @@
+package no.flatline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the length-limited code construction and the compact length table of {@link CanonicalCode}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class CanonicalCodeTest {
+
+    private static long cost(long[] freq, int[] lengths) {
+        long bits = 0;
+        for (int i = 0; i < freq.length; i++) {
+            bits += freq[i] * lengths[i];
+        }
+        return bits;
+    }
+
+    private static double kraft(int[] lengths) {
+        double sum = 0;
+        for (int length : lengths) {
+            if (length > 0) sum += Math.pow(2, -length);
+        }
+        return sum;
+    }
+
+    @Test
+    public void fibonacciFrequenciesAreCappedAtTheLimit() {
+        long[] freq = new long[40];
+        freq[0] = freq[1] = 1;
+        for (int i = 2; i < freq.length; i++) {
+            freq[i] = freq[i - 1] + freq[i - 2];
+        }
+        int[] lengths = CanonicalCode.lengths(freq, CanonicalCode.MAX_LENGTH);
+        for (int length : lengths) {
+            assertTrue(length >= 1 && length <= CanonicalCode.MAX_LENGTH);
+        }
+        assertEquals(1.0, kraft(lengths), 0);
+        CanonicalCode.codes(lengths); // a valid prefix code
+    }
+
+    @Test
+    public void unlimitedLengthsMatchHuffman() {
+        long[] freq = {45, 13, 12, 16, 9, 5};
+        int[] lengths = CanonicalCode.lengths(freq, 30);
+        assertEquals(224, cost(freq, lengths));
+        assertArrayEquals(lengths, CanonicalCode.lengths(freq, 4));
+        assertEquals(239, cost(freq, CanonicalCode.lengths(freq, 3)));
+    }
+
+    @Test
+    public void singleAndNoSymbols() {
+        long[] freq = new long[256];
+        assertEquals(0, kraft(CanonicalCode.lengths(freq, 15)), 0);
+        freq['x'] = 7;
+        int[] lengths = CanonicalCode.lengths(freq, 15);
+        assertEquals(1, lengths['x']);
+        assertEquals(0.5, kraft(lengths), 0);
+    }
+
+    @Test
+    public void lengthTablesRoundTrip() throws Exception {
+        Random random = new Random(8);
+        for (int density : new int[]{1, 4, 50, 100}) {
+            long[] freq = new long[272];
+            for (int i = 0; i < freq.length; i++) {
+                if (random.nextInt(100) < density) freq[i] = 1 + random.nextInt(1000);
+            }
+            int[] lengths = CanonicalCode.lengths(freq, CanonicalCode.MAX_LENGTH);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            CanonicalCode.writeLengths(out, lengths);
+            assertTrue("density " + density, out.size() <= 2 + (freq.length + 1) / 2);
+            assertArrayEquals(lengths, CanonicalCode.readLengths(new ByteArrayInputStream(out.toByteArray()), freq.length));
+        }
+    }
+
+    @Test
+    public void reusedBuilderMatchesFreshOne() {
+        Random random = new Random(14);
+        CodeBuilder builder = new CodeBuilder(256, CanonicalCode.MAX_LENGTH);
+        for (int round = 0; round < 50; round++) {
+            long[] freq = new long[256];
+            for (int i = 0; i < freq.length; i++) {
+                if (random.nextInt(4) == 0) freq[i] = 1 + random.nextInt(1 << random.nextInt(20));
+            }
+            int[] lengths = builder.lengths(freq);
+            assertArrayEquals(new CodeBuilder(256, CanonicalCode.MAX_LENGTH).lengths(freq), lengths);
+            assertArrayEquals(CanonicalCode.codes(lengths.clone()), builder.codes(lengths));
+        }
+    }
+}
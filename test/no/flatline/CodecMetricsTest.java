@@ -0,0 +1,83 @@
+package no.flatline;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import static no.flatline.TestData.sample;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the counters {@link CodecMetrics} collects from a codec.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class CodecMetricsTest {
+
+    private static byte[] roundTrip(Compressor codec, byte[] data) throws Exception {
+        ByteArrayOutputStream comp = new ByteArrayOutputStream();
+        codec.compress(new ByteArrayInputStream(data), comp);
+        codec.decompress(new ByteArrayInputStream(comp.toByteArray()), new ByteArrayOutputStream());
+        return comp.toByteArray();
+    }
+
+    @Test
+    public void countsBlocksBytesAndPhases() throws Exception {
+        byte[] data = sample(BlockCompressor.BLOCK_SIZE + 1000);
+        Huffman huffman = new Huffman();
+        CodecMetrics metrics = new CodecMetrics();
+        huffman.setListener(metrics);
+        byte[] compressed = roundTrip(huffman, data);
+
+        assertEquals(2, metrics.getBlocksCompressed());
+        assertEquals(data.length, metrics.getBytesCompressed());
+        assertTrue(metrics.getCompressedBytes() < compressed.length);
+        assertTrue(metrics.getCompressionRatio() > 0 && metrics.getCompressionRatio() < 0.5);
+        assertEquals(2, metrics.getBlocksDecompressed());
+        assertEquals(data.length, metrics.getBytesDecompressed());
+        assertTrue(metrics.getCountNanos() > 0);
+        assertTrue(metrics.getEncodeNanos() > 0);
+        assertTrue(metrics.getCompressNanos() >= metrics.getCountNanos() + metrics.getEncodeNanos());
+        assertEquals(0, metrics.getMatchNanos());
+
+        metrics.reset();
+        assertEquals(0, metrics.getBlocksCompressed());
+        huffman.setListener(null);
+        roundTrip(huffman, data);
+        assertEquals(0, metrics.getBlocksCompressed());
+    }
+
+    @Test
+    public void adaptiveReportsThePhasesOfTheCodecsItUses() throws Exception {
+        Adaptive adaptive = new Adaptive();
+        CodecMetrics metrics = new CodecMetrics();
+        adaptive.setListener(metrics);
+        roundTrip(adaptive, sample(100_000));
+        assertEquals(1, metrics.getBlocksCompressed());
+        assertTrue(metrics.getMatchNanos() > 0);
+        assertTrue(metrics.getBuildNanos() > 0);
+    }
+
+    @Test
+    public void isReadableOverJmx() throws Exception {
+        CodecMetrics metrics = new CodecMetrics();
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            LempelZivHuffman codec = new LempelZivHuffman();
+            codec.setListener(metrics);
+            roundTrip(codec, sample(50_000));
+            assertEquals(1L, server.getAttribute(name, "BlocksCompressed"));
+            assertEquals(50_000L, server.getAttribute(name, "BytesDecompressed"));
+            assertTrue((Long) server.getAttribute(name, "MatchNanos") > 0);
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
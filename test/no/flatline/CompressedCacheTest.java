@@ -0,0 +1,203 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static no.flatline.TestData.sample;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests looking up, refreshing and evicting decompressed files in {@link CompressedCache}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class CompressedCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Huffman().compress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    private File file(String name, byte[] data) throws IOException {
+        File file = new File(folder.getRoot(), name + ".cff");
+        Files.write(file.toPath(), compress(data));
+        return file;
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void filesAreDecompressedOnce() throws Exception {
+        byte[] data = sample(50_000, 1);
+        File file = file("a", data);
+        CompressedCache cache = new CompressedCache(1 << 20);
+        assertArrayEquals(data, bytes(cache.get(file)));
+        assertArrayEquals(data, bytes(cache.get(file)));
+        assertArrayEquals(data, bytes(cache.get(new File(folder.getRoot(), "./a.cff"))));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertTrue(cache.getSize() >= data.length);
+        assertTrue(cache.get(file).isReadOnly());
+    }
+
+    @Test
+    public void everyCodecHasItsOwnEntries() throws Exception {
+        byte[] data = sample(50_000, 1);
+        File file = file("a", data);
+        byte[] compressed = compress(data);
+        CompressedCache cache = new CompressedCache(1 << 20);
+        assertArrayEquals(data, bytes(cache.get(file, new Huffman())));
+        assertArrayEquals(data, bytes(cache.get(compressed, new Huffman())));
+        /* Another instance of the same codec decodes the same way */
+        assertArrayEquals(data, bytes(cache.get(file, new Huffman())));
+        assertArrayEquals(data, bytes(cache.get(compressed, new Huffman())));
+        assertEquals(2, cache.getHitCount());
+        /* A codec that can not decode the file is not handed the bytes of another */
+        try {
+            cache.get(file, new RangeCoder());
+            fail("A Huffman file was read from the cache as a range coded one");
+        } catch (IOException expected) {
+            // expected
+        }
+        try {
+            cache.get(compressed, new RangeCoder());
+            fail("Huffman bytes were read from the cache as range coded ones");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void everyModelHasItsOwnEntries() throws Exception {
+        byte[] data = sample(50_000, 1);
+        long[] freq = new long[256];
+        for (byte b : data) {
+            freq[b & 0xff]++;
+        }
+        Huffman trained = new Huffman(Model.of(freq));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trained.compress(new ByteArrayInputStream(data), out);
+        CompressedCache cache = new CompressedCache(1 << 20);
+        assertArrayEquals(data, bytes(cache.get(out.toByteArray(), trained)));
+        try {
+            cache.get(out.toByteArray(), new Huffman(Model.of(new long[256])));
+            fail("Bytes coded with one model were read from the cache with another");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("File needs model"));
+        }
+    }
+
+    @Test
+    public void changedFilesAreDecompressedAgain() throws Exception {
+        File file = file("a", sample(50_000, 1));
+        CompressedCache cache = new CompressedCache(1 << 20);
+        cache.get(file);
+        long size = cache.getSize();
+
+        byte[] changed = sample(40_000, 2);
+        Files.write(file.toPath(), compress(changed));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 5_000));
+        assertArrayEquals(changed, bytes(cache.get(file)));
+        assertEquals(2, cache.getMissCount());
+        /* The new version replaced the old one */
+        assertEquals(size - 10_000, cache.getSize());
+    }
+
+    @Test
+    public void bytesAreLookedUpByHash() throws Exception {
+        byte[] data = sample(30_000, 3);
+        CompressedCache cache = new CompressedCache(1 << 20);
+        assertArrayEquals(data, bytes(cache.get(compress(data), new Huffman())));
+        assertArrayEquals(data, bytes(cache.get(compress(data), new Huffman())));
+        assertArrayEquals(sample(30_000, 4), bytes(cache.get(compress(sample(30_000, 4)), new Huffman())));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreEvicted() throws Exception {
+        File a = file("a", sample(40_000, 1));
+        File b = file("b", sample(40_000, 2));
+        File c = file("c", sample(40_000, 3));
+        CompressedCache cache = new CompressedCache(100_000, 1);
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getSize() <= 100_000);
+
+        cache.get(a);
+        assertEquals(2, cache.getHitCount());
+        cache.get(b);
+        assertEquals(4, cache.getMissCount());
+
+        /* Larger than the whole budget, so never cached */
+        File large = file("large", sample(200_000, 5));
+        cache.get(large);
+        cache.get(large);
+        assertEquals(6, cache.getMissCount());
+        assertTrue(cache.getSize() <= 100_000);
+    }
+
+    @Test
+    public void concurrentReadersGetTheirFiles() throws Exception {
+        List<File> files = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            contents.add(sample(20_000 + i, i));
+            files.add(file("f" + i, contents.get(i)));
+        }
+        CompressedCache cache = new CompressedCache(1 << 20, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int k = 0; k < 200; k++) {
+                        int i = random.nextInt(files.size());
+                        assertArrayEquals(contents.get(i), bytes(cache.get(files.get(i))));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(800, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getHitCount() >= 800 - 4 * files.size());
+    }
+}
@@ -0,0 +1,357 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+import static no.flatline.TestData.sample;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips every codec through the stream, channel and buffer variants of {@link Compressor}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+@RunWith(Parameterized.class)
+public class CompressorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Compressor compressor;
+
+    public CompressorTest(String name, Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> codecs() {
+        return Arrays.asList(new Object[][]{
+                {"Huffman", new Huffman()},
+                {"LempelZiv", new LempelZiv()},
+                {"LempelZivHuffman", new LempelZivHuffman()},
+                {"RangeCoder", new RangeCoder()},
+                {"Adaptive", new Adaptive()},
+        });
+    }
+
+    private byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    private byte[] decompress(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.decompress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void streamsRoundTrip() throws Exception {
+        for (int size : new int[]{0, 1, 2, 100, 70_000, BlockCompressor.BLOCK_SIZE + 1}) {
+            byte[] data = sample(size);
+            assertArrayEquals("size " + size, data, decompress(compress(data)));
+        }
+    }
+
+    @Test
+    public void shortReadsAreReassembledIntoWholeBlocks() throws Exception {
+        byte[] data = sample(BlockCompressor.BLOCK_SIZE + 5_000);
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 777));
+            }
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compressor.compress(trickle, out);
+        assertArrayEquals(compress(data), out.toByteArray());
+    }
+
+    @Test
+    public void channelsRoundTrip() throws Exception {
+        byte[] data = sample(200_000);
+        ByteArrayOutputStream comp = new ByteArrayOutputStream();
+        compressor.compress(Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(comp));
+        ByteArrayOutputStream decomp = new ByteArrayOutputStream();
+        compressor.decompress(Channels.newChannel(new ByteArrayInputStream(comp.toByteArray())), Channels.newChannel(decomp));
+        assertArrayEquals(data, decomp.toByteArray());
+    }
+
+    @Test
+    public void buffersRoundTrip() throws Exception {
+        byte[] data = sample(150_000);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+        direct.position(10);
+        direct.put(data);
+        direct.position(10);
+        ByteBuffer comp = compressor.compress(direct);
+        assertEquals(direct.limit(), direct.position());
+        assertArrayEquals(compress(data), Arrays.copyOfRange(comp.array(), comp.position(), comp.limit()));
+
+        ByteBuffer decomp = compressor.decompress(comp);
+        assertArrayEquals(data, Arrays.copyOfRange(decomp.array(), decomp.position(), decomp.limit()));
+    }
+
+    @Test
+    public void truncatedInputFails() throws Exception {
+        byte[] comp = compress(sample(50_000));
+        try {
+            decompress(Arrays.copyOf(comp, comp.length / 2));
+            fail("Truncated input decompressed without error");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void verifyAcceptsIntactInput() throws Exception {
+        compressor.verify(new ByteArrayInputStream(compress(sample(70_000))));
+    }
+
+    @Test
+    public void corruptPayloadFailsVerification() throws Exception {
+        byte[] comp = compress(sample(50_000));
+        for (int back : new int[]{50, 500, 2_000}) {
+            byte[] corrupt = comp.clone();
+            corrupt[corrupt.length - back] ^= 0x10;
+            try {
+                compressor.verify(new ByteArrayInputStream(corrupt));
+                fail("Corrupt byte " + back + " from the end verified without error");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void oversizedPayloadLengthIsRejectedBeforeReading() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Container.writeHeader(out, new Container.Header(Container.FLAG_CHECKSUM, BlockCompressor.BLOCK_SIZE, 0));
+        Container.writeFrame(out, Container.STORED, 100, 0x7ffffff0);
+        Container.writeInt(out, 0);
+        out.write(new byte[100]);
+        for (boolean verify : new boolean[]{false, true}) {
+            try {
+                if (verify) {
+                    compressor.verify(new ByteArrayInputStream(out.toByteArray()));
+                } else {
+                    compressor.decompress(new ByteArrayInputStream(out.toByteArray()), new ByteArrayOutputStream());
+                }
+                fail("A payload length of 2 GB was accepted");
+            } catch (IOException expected) {
+                assertEquals("Payload is larger than the block size allows", expected.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void smallBlocksAndShallowQueuesRoundTrip() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        codec.setQueueDepth(1);
+        byte[] data = sample(100_000);
+        ByteArrayOutputStream comp = new ByteArrayOutputStream();
+        codec.compress(new ByteArrayInputStream(data), comp);
+        byte[] compressed = comp.toByteArray();
+        assertEquals(12, compressed[Container.MAGIC.length + 2]);
+        ByteBuffer buffered = codec.compress(ByteBuffer.wrap(data));
+        assertArrayEquals(compressed, Arrays.copyOfRange(buffered.array(), buffered.position(), buffered.limit()));
+        assertArrayEquals(data, decompress(compressed));
+    }
+
+    @Test
+    public void writeFailuresStopCompression() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        OutputStream failing = new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 10_000) throw new IOException("Disk full");
+            }
+        };
+        try {
+            codec.compress(new ByteArrayInputStream(sample(500_000)), failing);
+            fail("Compressed to a failing stream without error");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+    }
+
+    @Test
+    public void readFailuresStopCompression() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        InputStream failing = new FilterInputStream(new ByteArrayInputStream(sample(500_000))) {
+            private int read;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if ((read += len) > 100_000) throw new IOException("Bad sector");
+                return super.read(b, off, len);
+            }
+        };
+        try {
+            codec.compress(failing, new ByteArrayOutputStream());
+            fail("Compressed a failing stream without error");
+        } catch (IOException e) {
+            assertEquals("Bad sector", e.getMessage());
+        }
+    }
+
+    @Test
+    public void everyBufferIsGivenBack() throws Exception {
+        BufferPool pool = new BufferPool(true);
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBufferPool(pool);
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        byte[] data = sample(200_000);
+
+        ByteArrayOutputStream comp = new ByteArrayOutputStream();
+        codec.compress(new ByteArrayInputStream(data), comp);
+        ByteArrayOutputStream decomp = new ByteArrayOutputStream();
+        codec.decompress(new ByteArrayInputStream(comp.toByteArray()), decomp);
+        assertArrayEquals(data, decomp.toByteArray());
+        codec.compress(ByteBuffer.wrap(data));
+        assertEquals(Collections.emptyList(), pool.leaks());
+
+        /* A corrupt block, a failing output and a truncated input */
+        byte[] corrupt = comp.toByteArray();
+        corrupt[corrupt.length / 2] ^= 0x55;
+        OutputStream failing = new OutputStream() {
+            private int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 10_000) throw new IOException("Disk full");
+            }
+        };
+        for (Callable<?> run : Arrays.<Callable<?>>asList(
+                () -> {
+                    codec.verify(new ByteArrayInputStream(corrupt));
+                    return null;
+                },
+                () -> {
+                    codec.compress(new ByteArrayInputStream(data), failing);
+                    return null;
+                },
+                () -> {
+                    codec.verify(new ByteArrayInputStream(Arrays.copyOf(comp.toByteArray(), comp.size() / 3)));
+                    return null;
+                })) {
+            try {
+                run.call();
+                fail("Failing run finished without error");
+            } catch (IOException expected) {
+                // expected
+            }
+            assertEquals(Collections.emptyList(), pool.leaks());
+        }
+    }
+
+    @Test
+    public void appendingCompressesOnlyTheNewBytes() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        byte[] data = sample(50_000);
+        File src = folder.newFile("log");
+        File compressed = new File(folder.getRoot(), "log." + codec.getExtension());
+        /* The first append compresses the whole file, later ones code again the last block if it is not full */
+        int[] sizes = {10_000, 10_001, 30_000, 30_000, 50_000};
+        long[] coded = {10_000, 10_001 - 8192, 30_000 - 8192, 0, 50_000 - 7 * 4096};
+        for (int i = 0; i < sizes.length; i++) {
+            byte[] prefix = Arrays.copyOf(data, sizes[i]);
+            Files.write(src.toPath(), prefix);
+            assertEquals("size " + sizes[i], coded[i], codec.append(src, compressed));
+            byte[] appended = Files.readAllBytes(compressed.toPath());
+            ByteBuffer whole = codec.compress(ByteBuffer.wrap(prefix));
+            assertArrayEquals("size " + sizes[i], Arrays.copyOfRange(whole.array(), whole.position(), whole.limit()), appended);
+            assertArrayEquals("size " + sizes[i], prefix, decompress(appended));
+        }
+        try (SeekableReader reader = SeekableReader.open(compressed)) {
+            ByteBuffer buf = ByteBuffer.allocate(5000);
+            reader.position(41_000).read(buf);
+            assertArrayEquals(Arrays.copyOfRange(data, 41_000, 46_000), buf.array());
+        }
+    }
+
+    @Test
+    public void appendingRefusesSourcesThatWereRewritten() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        File src = folder.newFile("log");
+        File compressed = new File(folder.getRoot(), "log." + codec.getExtension());
+        Files.write(src.toPath(), sample(10_000));
+        codec.append(src, compressed);
+        byte[] before = Files.readAllBytes(compressed.toPath());
+
+        byte[] rotated = Arrays.copyOf(sample(10_000), 12_000);
+        rotated[9_000] ^= 1;
+        Files.write(src.toPath(), rotated);
+        try {
+            codec.append(src, compressed);
+            fail("A rewritten source was appended");
+        } catch (IOException expected) {
+            // expected
+        }
+        Files.write(src.toPath(), sample(5_000));
+        try {
+            codec.append(src, compressed);
+            fail("A shorter source was appended");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertArrayEquals(before, Files.readAllBytes(compressed.toPath()));
+    }
+
+    @Test
+    public void appendingRefusesFilesOfAnotherCodec() throws Exception {
+        BlockCompressor codec = (BlockCompressor) Compressor.forExtension(compressor.getExtension());
+        /* No other codec decodes range coded frames */
+        BlockCompressor other = codec instanceof RangeCoder ? new LempelZiv() : new RangeCoder();
+        byte[] data = sample(20_000);
+        File src = folder.newFile("log");
+        File compressed = new File(folder.getRoot(), "log." + codec.getExtension());
+        Files.write(src.toPath(), Arrays.copyOf(data, 10_000));
+        other.append(src, compressed);
+        byte[] before = Files.readAllBytes(compressed.toPath());
+
+        Files.write(src.toPath(), data);
+        try {
+            codec.append(src, compressed);
+            fail("Appended to a file of another codec");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertArrayEquals(before, Files.readAllBytes(compressed.toPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockSizeMustBeAPowerOfTwo() {
+        ((BlockCompressor) Compressor.forExtension(compressor.getExtension())).setBlockSize(5000);
+    }
+}
@@ -0,0 +1,72 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests counting bytes with {@link Histogram}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class HistogramTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static long[] naive(byte[] data, int off, int len) {
+        long[] freq = new long[256];
+        for (int i = off; i < off + len; i++) {
+            freq[data[i] & 0xff]++;
+        }
+        return freq;
+    }
+
+    @Test
+    public void stripedCountMatchesNaiveCount() {
+        byte[] data = new byte[1003];
+        new Random(1).nextBytes(data);
+        for (int off : new int[]{0, 1, 3}) {
+            for (int len : new int[]{0, 1, 3, 4, 7, 1000}) {
+                int[] striped = new int[Histogram.STRIPES * Histogram.SYMBOLS];
+                long[] freq = new long[256];
+                Histogram.count(data, off, len, striped);
+                Histogram.merge(striped, freq);
+                assertArrayEquals(off + "+" + len, naive(data, off, len), freq);
+            }
+        }
+    }
+
+    @Test
+    public void parallelCountMatchesNaiveCount() throws Exception {
+        Random random = new Random(2);
+        List<Path> files = new ArrayList<>();
+        long[] expected = new long[256];
+        /* Empty, small, and larger than one range so that a file is split */
+        for (int size : new int[]{0, 1, 12_345, (1 << 22) + 777, 9 << 20}) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(256) : 'x');
+            }
+            Path file = folder.newFile().toPath();
+            Files.write(file, data);
+            files.add(file);
+            long[] freq = naive(data, 0, size);
+            for (int s = 0; s < 256; s++) {
+                expected[s] += freq[s];
+            }
+        }
+        assertArrayEquals(expected, Histogram.count(files, new ForkJoinPool(3)));
+        assertArrayEquals(new long[256], Histogram.count(new ArrayList<>(), ForkJoinPool.commonPool()));
+    }
+}
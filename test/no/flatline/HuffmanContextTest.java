@@ -0,0 +1,128 @@
+package no.flatline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static no.flatline.TestData.sample;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests compressing on the calling thread with a reusable {@link HuffmanContext}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class HuffmanContextTest {
+
+    private static final int FIRST_FRAME = Container.MAGIC.length + 3;
+
+    @Test
+    public void outputMatchesCompressor() throws Exception {
+        Huffman huffman = new Huffman();
+        HuffmanContext context = new HuffmanContext(huffman);
+        for (int size : new int[]{0, 1, 100, 70_000, BlockCompressor.BLOCK_SIZE + 1}) {
+            byte[] data = sample(size, size);
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            huffman.compress(new ByteArrayInputStream(data), expected);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            context.compress(data, 0, data.length, actual);
+            assertArrayEquals("size " + size, expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void sharedTableRoundTrips() throws Exception {
+        Huffman huffman = new Huffman(Model.of(new long[256]));
+        HuffmanContext context = new HuffmanContext(huffman);
+        byte[] data = sample(1000, 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        context.compress(data, 100, 500, out);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        huffman.decompress(new ByteArrayInputStream(out.toByteArray()), decompressed);
+        assertArrayEquals(java.util.Arrays.copyOfRange(data, 100, 600), decompressed.toByteArray());
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        HuffmanContext context = new HuffmanContext(new Huffman());
+        byte[][] messages = new byte[16][];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = sample(200 + 50 * i, i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 12);
+        for (int warmup = 0; warmup < 2_000; warmup++) {
+            out.reset();
+            context.compress(messages[warmup % 16], 0, messages[warmup % 16].length, out);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10_000; i++) {
+            out.reset();
+            context.compress(messages[i % 16], 0, messages[i % 16].length, out);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        /* Allows for the bookkeeping of the measurement itself */
+        assertEquals(0, allocated / 10_000);
+    }
+
+    @Test
+    public void largeBlocksAreCodedInStreams() throws Exception {
+        Huffman huffman = new Huffman();
+        int min = HuffmanContext.STREAMS_MIN_BLOCK;
+        for (int size : new int[]{min - 1, min, min + 1, min + 3, 200_001}) {
+            byte[] data = sample(size, size);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            huffman.compress(new ByteArrayInputStream(data), out);
+            byte[] compressed = out.toByteArray();
+            int type = size < min ? Container.HUFFMAN_CANONICAL : Container.HUFFMAN_STREAMS;
+            assertEquals("size " + size, type, compressed[FIRST_FRAME]);
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            huffman.decompress(new ByteArrayInputStream(compressed), decompressed);
+            assertArrayEquals("size " + size, data, decompressed.toByteArray());
+        }
+    }
+
+    @Test
+    public void streamCodesAreLimitedToTheDecoderTable() throws Exception {
+        /* Every byte value is half as frequent as the one before, which needs codes longer than the table */
+        byte[] data = new byte[1 << 16];
+        for (int i = 0, b = 0, run = data.length / 2; i < data.length; b++, run = Math.max(1, run / 2)) {
+            for (int k = 0; k < run && i < data.length; k++) {
+                data[i++] = (byte) b;
+            }
+        }
+        Huffman huffman = new Huffman();
+        HuffmanContext context = huffman.context();
+        assertEquals(Container.HUFFMAN_STREAMS, context.encodeBlock(data, 0, data.length));
+        byte[] payload = context.payload.toByteArray();
+        byte[] decoded = new byte[data.length];
+        huffman.decodeBlock(Container.HUFFMAN_STREAMS, payload, payload.length, decoded, data.length);
+        assertArrayEquals(data, decoded);
+    }
+
+    @Test
+    public void truncatedStreamsAreRejected() throws Exception {
+        byte[] data = sample(50_000, 5);
+        Huffman huffman = new Huffman();
+        HuffmanContext context = huffman.context();
+        assertEquals(Container.HUFFMAN_STREAMS, context.encodeBlock(data, 0, data.length));
+        byte[] payload = context.payload.toByteArray();
+        byte[] decoded = new byte[data.length];
+        for (int cut : new int[]{1, 100, payload.length / 2, payload.length - 40}) {
+            try {
+                /* The bytes after the given length are still in the buffer, and must not be read */
+                huffman.decodeBlock(Container.HUFFMAN_STREAMS, payload, payload.length - cut, decoded, data.length);
+                fail("Accepted a payload cut by " + cut);
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package no.flatline;
+
+import no.flatline.io.BitReader;
+import no.flatline.io.BitWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the root and chained sub-tables of {@link HuffmanDecoder}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class HuffmanDecoderTest {
+
+    /**
+     * Assigns canonical codes to lengths of any size, in order of length and then symbol.
+     */
+    private static long[] canonical(int[] lengths) {
+        long[] codes = new long[lengths.length];
+        long code = 0;
+        int previous = 0;
+        for (int length = 1; length <= 64; length++) {
+            for (int s = 0; s < lengths.length; s++) {
+                if (lengths[s] != length) continue;
+                code <<= length - previous;
+                previous = length;
+                codes[s] = code++;
+            }
+        }
+        return codes;
+    }
+
+    private static byte[] encode(long[] codes, int[] lengths, byte[] symbols) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BitWriter writer = new BitWriter(out);
+        for (byte symbol : symbols) {
+            writer.write(codes[symbol & 0xff], lengths[symbol & 0xff]);
+        }
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void codesLongerThanTheRootTableAreChained() throws Exception {
+        /* Symbol i has length i + 1 and the last two share the longest length, 29 bits, which
+           needs a root table, a sub-table and a chained sub-table of that */
+        int[] lengths = new int[30];
+        for (int s = 0; s < lengths.length; s++) {
+            lengths[s] = Math.min(s + 1, lengths.length - 1);
+        }
+        long[] codes = canonical(lengths);
+        byte[] symbols = new byte[3000];
+        Random random = new Random(2);
+        for (int i = 0; i < symbols.length; i++) {
+            /* Mostly long codes */
+            symbols[i] = (byte) (random.nextBoolean() ? lengths.length - 1 - random.nextInt(12) : random.nextInt(lengths.length));
+        }
+        HuffmanDecoder decoder = new HuffmanDecoder(codes, lengths);
+        byte[] decoded = new byte[symbols.length];
+        decoder.decode(new BitReader(new ByteArrayInputStream(encode(codes, lengths, symbols))), decoded, 0, decoded.length);
+        assertArrayEquals(symbols, decoded);
+    }
+
+    @Test
+    public void codesAreDecodedFromAByteArrayAWordAtATime() throws Exception {
+        /* Chained codes of up to 29 bits, so only one or two fit in a word, behind a prefix of three bytes */
+        int[] lengths = new int[30];
+        for (int s = 0; s < lengths.length; s++) {
+            lengths[s] = Math.min(s + 1, lengths.length - 1);
+        }
+        long[] codes = canonical(lengths);
+        Random random = new Random(3);
+        byte[] symbols = new byte[3000];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = (byte) (random.nextBoolean() ? random.nextInt(4) : random.nextInt(lengths.length));
+        }
+        byte[] bits = encode(codes, lengths, symbols);
+        byte[] src = new byte[bits.length + 3];
+        System.arraycopy(bits, 0, src, 3, bits.length);
+        byte[] decoded = new byte[symbols.length];
+        new HuffmanDecoder(codes, lengths).decode(src, 3, src.length, decoded, 0, decoded.length);
+        assertArrayEquals(symbols, decoded);
+    }
+
+    @Test(expected = EOFException.class)
+    public void aByteArrayThatEndsTooEarlyIsRejected() throws Exception {
+        int[] lengths = {1, 2, 3, 3};
+        long[] codes = canonical(lengths);
+        byte[] symbols = new byte[100];
+        Arrays.fill(symbols, (byte) 3);
+        byte[] bits = encode(codes, lengths, symbols);
+        new HuffmanDecoder(codes, lengths).decode(bits, 0, bits.length - 2, new byte[100], 0, 100);
+    }
+
+    @Test
+    public void shortCodesFitInASmallerRootTable() throws Exception {
+        int[] lengths = {2, 2, 2, 3, 3};
+        long[] codes = canonical(lengths);
+        byte[] symbols = {0, 4, 3, 1, 2, 2, 4, 0};
+        BitReader in = new BitReader(new ByteArrayInputStream(encode(codes, lengths, symbols)));
+        HuffmanDecoder decoder = new HuffmanDecoder(codes, lengths);
+        for (byte symbol : symbols) {
+            assertEquals(symbol, decoder.decodeSymbol(in));
+        }
+        in.checkOverrun();
+    }
+
+    @Test
+    public void aSingleSymbolTakesNoBits() throws Exception {
+        byte[] decoded = new byte[5];
+        new HuffmanDecoder('z').decode(new BitReader(new ByteArrayInputStream(new byte[0])), decoded, 0, 5);
+        assertArrayEquals("zzzzz".getBytes("US-ASCII"), decoded);
+    }
+
+    @Test(expected = IOException.class)
+    public void missingCodesAreRejected() throws Exception {
+        /* An incomplete code: 111... in a sub-table starts no code */
+        int[] lengths = new int[16];
+        for (int s = 0; s < lengths.length; s++) {
+            lengths[s] = s + 1;
+        }
+        long[] codes = canonical(lengths);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BitWriter writer = new BitWriter(out);
+        writer.write(0xffff, 16);
+        writer.write(0xffff, 16);
+        writer.flush();
+        new HuffmanDecoder(codes, lengths).decodeSymbol(new BitReader(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    /**
+     * Codes four quarters of the symbols as streams one after another, the way {@link HuffmanContext} does.
+     */
+    private static byte[] encodeStreams(long[] codes, int[] lengths, byte[] symbols, int[] bounds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int segment = (symbols.length + 3) / 4;
+        for (int s = 0; s < 4; s++) {
+            bounds[s] = out.size();
+            int from = Math.min(symbols.length, s * segment);
+            out.write(encode(codes, lengths, Arrays.copyOfRange(symbols, from, Math.min(symbols.length, from + segment))));
+        }
+        bounds[4] = out.size();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void fourStreamsRoundTrip() throws Exception {
+        int[] lengths = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 11};
+        long[] codes = canonical(lengths);
+        Random random = new Random(16);
+        /* Streams too short for a whole word, and long ones that end a byte at a time */
+        for (int n : new int[]{1, 4, 37, 10_000}) {
+            byte[] symbols = new byte[n];
+            for (int i = 0; i < n; i++) {
+                symbols[i] = (byte) Math.min(lengths.length - 1, Integer.numberOfTrailingZeros(random.nextInt() | 1 << 12));
+            }
+            int[] bounds = new int[5];
+            byte[] streams = encodeStreams(codes, lengths, symbols, bounds);
+            byte[] decoded = new byte[n];
+            new HuffmanDecoder(codes, lengths).decodeStreams(streams, bounds, decoded, n);
+            assertArrayEquals("n " + n, symbols, decoded);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void fourStreamsNeedACompleteCode() throws Exception {
+        int[] lengths = {1, 2};
+        long[] codes = canonical(lengths);
+        byte[] symbols = new byte[100];
+        int[] bounds = new int[5];
+        byte[] streams = encodeStreams(codes, lengths, symbols, bounds);
+        new HuffmanDecoder(codes, lengths).decodeStreams(streams, bounds, new byte[100], 100);
+    }
+}
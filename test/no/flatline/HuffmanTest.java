@@ -8,6 +8,7 @@ import java.io.*;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -18,7 +19,10 @@ import static org.junit.Assert.assertTrue;
  */
 public class HuffmanTest {
 
-    private static final Path DIRECTORY = FileSystems.getDefault().getPath("resource/source");
+    private static final String SOURCE = "resource" + File.separator + "source";
+    private static final String COMPRESSED = "resource" + File.separator + "compressed";
+    private static final String DECOMPRESSED = "resource" + File.separator + "decompressed";
+    private static final Path DIRECTORY = FileSystems.getDefault().getPath(SOURCE);
     private static File FILE_1;
     private static File FILE_2;
 
@@ -31,13 +35,13 @@ public class HuffmanTest {
         System.out.println("Running initial setup for Huffman Tests.");
         File[] testFiles = DIRECTORY.toFile().listFiles();
         delete(testFiles);
-        File[] compFiles = FileSystems.getDefault().getPath("resource\\compressed").toFile().listFiles();
+        File[] compFiles = FileSystems.getDefault().getPath(COMPRESSED).toFile().listFiles();
         delete(compFiles);
-        File[] decompFiles = FileSystems.getDefault().getPath("resource\\decompressed").toFile().listFiles();
+        File[] decompFiles = FileSystems.getDefault().getPath(DECOMPRESSED).toFile().listFiles();
         delete(decompFiles);
         System.out.println("\nRunning setup for a test.");
-        FILE_1 = FileUtil.createFile("resource\\source", "test-1", "txt");
-        FILE_2 = FileUtil.createFile("resource\\source", "test-2", "txt");
+        FILE_1 = FileUtil.createFile(SOURCE, "test-1", "txt");
+        FILE_2 = FileUtil.createFile(SOURCE, "test-2", "txt");
 //        FILE_3 = Files.createTempFile(DIRECTORY, "test-3", ".txt").toFile();
         BufferedWriter bw1 = new BufferedWriter(new FileWriter(FILE_1));
         BufferedWriter bw2 = new BufferedWriter(new FileWriter(FILE_2));
@@ -77,7 +81,7 @@ public class HuffmanTest {
         Huffman h = new Huffman();
         long size = FILE_1.length();
         h.compress(FILE_1);
-        File newFile = new File(FILE_1.toString().replace("resource\\source", "resource\\compressed") + ".cff");
+        File newFile = new File(FILE_1.toString().replace(SOURCE, COMPRESSED) + ".cff");
         assertTrue(newFile.length() < size);
     }
 
@@ -86,9 +90,9 @@ public class HuffmanTest {
         Huffman h = new Huffman();
 
         h.compress(FILE_2);
-        h.decompress(new File(FILE_2.toString().replace("resource\\source", "resource\\compressed") + ".cff"));
+        h.decompress(new File(FILE_2.toString().replace(SOURCE, COMPRESSED) + ".cff"));
 
-        File decomp = new File(FILE_2.toString().replace("resource\\source", "resource\\decompressed"));
+        File decomp = new File(FILE_2.toString().replace(SOURCE, DECOMPRESSED));
         DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(FILE_2)));
         DataInputStream dat = new DataInputStream(new BufferedInputStream(new FileInputStream(decomp)));
 
@@ -98,4 +102,22 @@ public class HuffmanTest {
             assertEquals(c, dat.read());
         }
     }
-}
\ No newline at end of file
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Huffman().decompress(new ByteArrayInputStream(compressed), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void singleStreamFilesStillDecompress() throws Exception {
+        /* The layout from before the container: a frequency width of 1, the frequency of byte 0,
+           every used byte with its frequency and a terminating 0, then the codes of the tree
+           c = 00, b = 01, a = 1 */
+        byte[] legacy = {1, 0, 'a', 5, 'b', 2, 'c', 1, 0, (byte) 0b1011_0010, (byte) 0b1110_0000};
+        assertArrayEquals("abacabaa".getBytes("US-ASCII"), decompress(legacy));
+        /* A single byte value takes no bits, and an empty file has only its table */
+        assertArrayEquals("xxx".getBytes("US-ASCII"), decompress(new byte[]{1, 0, 'x', 3, 0}));
+        assertArrayEquals(new byte[0], decompress(new byte[]{1, 0, 0}));
+    }
+}
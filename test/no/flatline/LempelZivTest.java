@@ -0,0 +1,142 @@
+package no.flatline;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class LempelZivTest {
+
+    private static final File COMPRESSED = new File("resource/compressed");
+    private static final File DECOMPRESSED = new File("resource/decompressed");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Makes sure the output directories exist.
+     * @throws Exception - Throws any exception.
+     */
+    @BeforeClass
+    public static void initialSetUp() throws Exception {
+        Files.createDirectories(COMPRESSED.toPath());
+        Files.createDirectories(DECOMPRESSED.toPath());
+    }
+
+    /**
+     * Compresses and decompresses {@code data} through files.
+     * @return the compressed size and the decompressed bytes.
+     */
+    private Object[] roundTrip(Compressor compressor, String extension, byte[] data) throws Exception {
+        File src = new File(folder.getRoot(), "test-lz.txt");
+        Files.write(src.toPath(), data);
+        File comp = new File(COMPRESSED, "test-lz.txt." + extension);
+        File decomp = new File(DECOMPRESSED, "test-lz.txt");
+        Files.deleteIfExists(comp.toPath());
+        Files.deleteIfExists(decomp.toPath());
+        try {
+            compressor.compress(src);
+            compressor.decompress(comp);
+            return new Object[]{comp.length(), Files.readAllBytes(decomp.toPath())};
+        } finally {
+            Files.deleteIfExists(comp.toPath());
+            Files.deleteIfExists(decomp.toPath());
+        }
+    }
+
+    private static byte[] repetitive(int size) {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(42);
+        String[] words = {"flat", "file", "compress", "block", "window", "huffman", "lempel", "ziv"};
+        while (sb.length() < size) {
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(4) == 0 ? '\n' : ' ');
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void compressesRepetitiveText() throws Exception {
+        byte[] data = repetitive(200_000);
+        Object[] result = roundTrip(new LempelZiv(), "clz", data);
+        assertArrayEquals(data, (byte[]) result[1]);
+        assertTrue((Long) result[0] < data.length / 3);
+    }
+
+    @Test
+    public void roundTripsRandomData() throws Exception {
+        byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        assertArrayEquals(data, (byte[]) roundTrip(new LempelZiv(), "clz", data)[1]);
+    }
+
+    @Test
+    public void roundTripsOverlappingMatches() throws Exception {
+        byte[] data = new byte[10_000];
+        data[5_000] = 1;
+        assertArrayEquals(data, (byte[]) roundTrip(new LempelZiv(), "clz", data)[1]);
+    }
+
+    @Test
+    public void roundTripsEmptyFile() throws Exception {
+        assertArrayEquals(new byte[0], (byte[]) roundTrip(new LempelZiv(), "clz", new byte[0])[1]);
+    }
+
+    @Test
+    public void roundTripsSeveralBlocks() throws Exception {
+        byte[] data = repetitive(BlockCompressor.BLOCK_SIZE * 2 + 12_345);
+        assertArrayEquals(data, (byte[]) roundTrip(new LempelZiv(1 << 20, 4), "clz", data)[1]);
+    }
+
+    @Test
+    public void deeperSearchCompressesBetter() throws Exception {
+        byte[] data = repetitive(300_000);
+        long shallow = (Long) roundTrip(new LempelZiv(1 << 12, 1), "clz", data)[0];
+        long deep = (Long) roundTrip(new LempelZiv(1 << 16, 64), "clz", data)[0];
+        assertTrue(deep < shallow);
+    }
+
+    @Test
+    public void huffmanCodedMatchesBeatHuffmanAlone() throws Exception {
+        byte[] data = repetitive(300_000);
+        Object[] lzh = roundTrip(new LempelZivHuffman(), "clh", data);
+        Object[] huffman = roundTrip(new Huffman(), "cff", data);
+        assertArrayEquals(data, (byte[]) lzh[1]);
+        assertTrue((Long) lzh[0] * 3 < (Long) huffman[0]);
+    }
+
+    @Test
+    public void huffmanCodedMatchesRoundTripSeveralBlocks() throws Exception {
+        byte[] data = new byte[BlockCompressor.BLOCK_SIZE + 77_777];
+        Random random = new Random(7);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 1000 < 500 ? random.nextInt(4) : i / 1000);
+        }
+        assertArrayEquals(data, (byte[]) roundTrip(new LempelZivHuffman(1 << 20, 16), "clh", data)[1]);
+    }
+
+    @Test
+    public void aLongerMatchAtTheNextByteIsPreferred() {
+        /* At the last "abcd", greedy parsing takes the four bytes after X and then the rest after Y.
+           The match of 20 bytes that starts one byte later is worth the literal. */
+        byte[] data = "XabcdY bcdefghijklmnopqrstu Z abcdefghijklmnopqrstu".getBytes(StandardCharsets.US_ASCII);
+        MatchFinder finder = new MatchFinder(1 << 12, 8);
+        finder.parse(data, 0, data.length);
+        assertEquals(1, finder.count);
+        assertEquals(31, finder.literalLengths[0]);
+        assertEquals(20, finder.matchLengths[0]);
+        assertEquals(24, finder.distances[0]);
+    }
+}
@@ -0,0 +1,108 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests training models and compressing small files with them.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class ModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] message(Random random) {
+        return ("{\"id\":" + random.nextInt(1000000) + ",\"status\":\"" + (random.nextBoolean() ? "ok" : "failed")
+                + "\",\"user\":\"user" + random.nextInt(1000) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Model train() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        Random random = new Random(12);
+        for (int i = 0; i < 200; i++) {
+            Files.write(dir.resolve("msg-" + i + ".json"), message(random));
+        }
+        return Model.train(Collections.singletonList(dir));
+    }
+
+    private static byte[] compress(Compressor codec, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.compress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(Compressor codec, byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.decompress(new ByteArrayInputStream(data), out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void smallMessagesAreSmallerWithModel() throws Exception {
+        Huffman trained = new Huffman(train());
+        Random random = new Random(99);
+        for (int i = 0; i < 20; i++) {
+            byte[] message = message(random);
+            byte[] withModel = compress(trained, message);
+            assertTrue(withModel.length + " vs " + message.length, withModel.length < compress(new Huffman(), message).length);
+            assertArrayEquals(message, decompress(trained, withModel));
+        }
+    }
+
+    @Test
+    public void unlikeDataStillRoundTrips() throws Exception {
+        Huffman trained = new Huffman(train());
+        byte[] data = new byte[100_000];
+        new Random(5).nextBytes(data);
+        assertArrayEquals(data, decompress(trained, compress(trained, data)));
+    }
+
+    @Test
+    public void decompressingNeedsTheSameModel() throws Exception {
+        Model model = train();
+        byte[] compressed = compress(new Huffman(model), message(new Random(1)));
+        for (Huffman other : new Huffman[]{new Huffman(), new Huffman(Model.of(new long[256]))}) {
+            try {
+                decompress(other, compressed);
+                fail("Decompressed without the model");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains(model.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void writtenModelReadsBack() throws Exception {
+        Model model = train();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+        Model read = Model.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(model.getId(), read.getId());
+        assertArrayEquals(model.table(), read.table());
+        assertEquals(model.getId(), train().getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptModel() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        train().write(out);
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length - 1] ^= 0x11;
+        Model.read(new ByteArrayInputStream(bytes));
+    }
+}
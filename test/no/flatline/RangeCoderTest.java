@@ -0,0 +1,86 @@
+package no.flatline;
+
+import no.flatline.io.RangeEncoder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the choice between order-1 and order-0 coding and the rescaling of contexts in {@link RangeCoder}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class RangeCoderTest {
+
+    private final RangeCoder coder = new RangeCoder();
+
+    private byte[] compress(byte[] data) throws IOException {
+        ByteBuffer compressed = coder.compress(ByteBuffer.wrap(data));
+        return Arrays.copyOfRange(compressed.array(), compressed.position(), compressed.limit());
+    }
+
+    private byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        coder.decompress(new ByteArrayInputStream(compressed), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the type of the first frame of a container.
+     */
+    private int firstFrameType(byte[] compressed) {
+        return compressed[Container.headerSize(coder.header())];
+    }
+
+    @Test
+    public void bytesWithoutNeighbourStructureAreCodedWithOneContext() throws Exception {
+        /* Sixteen equally likely symbols, drawn independently: nothing for the 256 contexts to learn */
+        byte[] data = new byte[100_000];
+        Random random = new Random(13);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(16));
+        }
+        byte[] compressed = compress(data);
+        assertEquals(Container.RANGE_ORDER0, firstFrameType(compressed));
+        /* Close to the 4 bits per byte of the source */
+        assertTrue(compressed.length < data.length / 2 + 1000);
+        assertArrayEquals(data, decompress(compressed));
+    }
+
+    @Test
+    public void bytesThatPredictTheNextAreCodedWithOrder1Contexts() throws Exception {
+        byte[] text = "the range coder codes every byte in the context of the one before it. ".getBytes("US-ASCII");
+        byte[] data = new byte[100_000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = text[i % text.length];
+        }
+        byte[] compressed = compress(data);
+        assertEquals(Container.RANGE_ORDER1, firstFrameType(compressed));
+        assertArrayEquals(data, decompress(compressed));
+    }
+
+    @Test
+    public void contextsAreRescaledWhenTheirTotalIsReached() throws Exception {
+        /* A run passes the largest total of its context many times over, and then the context of
+           'a' has to learn that 'b' follows instead, which it only can once the old counts are halved */
+        int run = 40 * RangeEncoder.MAX_TOTAL / 24;
+        byte[] data = new byte[2 * run];
+        Arrays.fill(data, 0, run, (byte) 'a');
+        for (int i = run; i < data.length; i++) {
+            data[i] = (byte) ((i & 1) == 0 ? 'a' : 'b');
+        }
+        byte[] compressed = compress(data);
+        assertArrayEquals(data, decompress(compressed));
+        assertTrue("compressed to " + compressed.length, compressed.length < data.length / 100);
+    }
+}
@@ -0,0 +1,197 @@
+package no.flatline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static no.flatline.TestData.sample;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reading compressed files at random offsets with {@link SeekableReader}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class SeekableReaderTest {
+
+    private static final int SIZE = 2 * BlockCompressor.BLOCK_SIZE + 5_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File compress(byte[] data, Compressor codec) throws IOException {
+        File file = new File(folder.getRoot(), "data." + codec.getExtension());
+        try (OutputStream out = new FileOutputStream(file)) {
+            codec.compress(new ByteArrayInputStream(data), out);
+        }
+        return file;
+    }
+
+    private static byte[] read(SeekableReader reader, long offset, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        reader.position(offset);
+        while (buf.hasRemaining() && reader.read(buf) > 0) {
+            // keep reading
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    private static void assertRandomReads(byte[] data, SeekableReader reader) throws IOException {
+        assertEquals(data.length, reader.size());
+        Random random = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            int offset = random.nextInt(data.length);
+            int len = random.nextInt(10_000);
+            int end = Math.min(data.length, offset + len);
+            assertArrayEquals("offset " + offset, Arrays.copyOfRange(data, offset, end), read(reader, offset, len));
+        }
+    }
+
+    @Test
+    public void readsAnyRangeWithTheIndex() throws Exception {
+        byte[] data = sample(SIZE);
+        for (Compressor codec : new Compressor[]{new Huffman(), new LempelZivHuffman(), new Adaptive()}) {
+            try (SeekableReader reader = SeekableReader.open(compress(data, codec))) {
+                assertEquals(3, reader.getBlockCount());
+                assertRandomReads(data, reader);
+                /* Across the boundary of the first two blocks */
+                int boundary = BlockCompressor.BLOCK_SIZE;
+                assertArrayEquals(Arrays.copyOfRange(data, boundary - 100, boundary + 100),
+                        read(reader, boundary - 100, 200));
+            }
+        }
+    }
+
+    @Test
+    public void containersWithoutIndexAreScanned() throws Exception {
+        byte[] data = sample(SIZE);
+        File file = compress(data, new Huffman());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - Container.TRAILER_SIZE);
+            raf.setLength(raf.readLong());
+        }
+        try (SeekableReader reader = SeekableReader.open(file)) {
+            assertEquals(3, reader.getBlockCount());
+            assertRandomReads(data, reader);
+        }
+    }
+
+    @Test
+    public void singleBlockHasNoIndex() throws Exception {
+        byte[] data = sample(70_000);
+        File file = compress(data, new Huffman());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        assertEquals(Container.END, bytes[bytes.length - 1]);
+        try (SeekableReader reader = SeekableReader.open(file)) {
+            assertRandomReads(data, reader);
+        }
+    }
+
+    @Test
+    public void readsAsStream() throws Exception {
+        byte[] data = sample(SIZE);
+        try (SeekableReader reader = SeekableReader.open(compress(data, new Huffman()))) {
+            reader.position(700_000);
+            InputStream in = Channels.newInputStream(reader);
+            byte[] buf = new byte[4096];
+            int n = 0;
+            for (int r; n < buf.length && (r = in.read(buf, n, buf.length - n)) > 0; ) {
+                n += r;
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, 700_000, 700_000 + 4096), buf);
+            assertEquals(700_000 + 4096, reader.position());
+
+            reader.position(data.length);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void positionalReadsLeaveThePosition() throws Exception {
+        byte[] data = sample(SIZE);
+        try (SeekableReader reader = SeekableReader.open(compress(data, new Huffman()))) {
+            ByteBuffer buf = ByteBuffer.allocate(100);
+            assertEquals(100, reader.read(buf, BlockCompressor.BLOCK_SIZE + 7));
+            assertArrayEquals(Arrays.copyOfRange(data, BlockCompressor.BLOCK_SIZE + 7, BlockCompressor.BLOCK_SIZE + 107),
+                    buf.array());
+            assertEquals(0, reader.position());
+        }
+    }
+
+    @Test
+    public void corruptBlockFailsOnlyWhenRead() throws Exception {
+        byte[] data = sample(SIZE);
+        File file = compress(data, new Adaptive());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(Container.headerSize(new Adaptive().header()) + 100);
+            int b = raf.read();
+            raf.seek(raf.getFilePointer() - 1);
+            raf.write(b ^ 0x40);
+        }
+        try (SeekableReader reader = SeekableReader.open(file)) {
+            int last = 2 * BlockCompressor.BLOCK_SIZE;
+            assertArrayEquals(Arrays.copyOfRange(data, last, last + 1000), read(reader, last, 1000));
+            try {
+                read(reader, 10, 1000);
+                fail("Corrupt block read without error");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void payloadLengthPastTheEndFailsBeforeReading() throws Exception {
+        byte[] data = sample(10_000);
+        Huffman codec = new Huffman();
+        codec.setBlockSize(BlockCompressor.MIN_BLOCK_SIZE);
+        File file = compress(data, codec);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            /* The payload length of the first frame follows its type and the two bytes of its raw length */
+            raf.seek(Container.headerSize(codec.header()) + 3);
+            raf.write(new byte[]{(byte) 0xff, 0x7f});
+        }
+        try (SeekableReader reader = SeekableReader.open(file)) {
+            assertArrayEquals(Arrays.copyOfRange(data, 9_000, 10_000), read(reader, 9_000, 1000));
+            try {
+                read(reader, 10, 1000);
+                fail("A payload past the end of the file was read");
+            } catch (IOException expected) {
+                assertEquals("Corrupt block index", expected.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void blocksAreGivenBackToThePool() throws Exception {
+        byte[] data = sample(SIZE);
+        Huffman codec = new Huffman();
+        File file = compress(data, codec);
+        BufferPool pool = new BufferPool(true);
+        codec.setBufferPool(pool);
+        try (SeekableReader reader = SeekableReader.open(file, codec, 1)) {
+            for (long offset = 0; offset < SIZE; offset += BlockCompressor.BLOCK_SIZE / 2) {
+                int n = (int) Math.min(1000, SIZE - offset);
+                assertArrayEquals(Arrays.copyOfRange(data, (int) offset, (int) offset + n), read(reader, offset, n));
+            }
+            assertEquals(1, pool.leaks().size());
+        }
+        assertEquals(0, pool.leaks().size());
+    }
+}
@@ -0,0 +1,43 @@
+package no.flatline;
+
+import java.util.Random;
+
+/**
+ * Inputs shared by the tests.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Returns letters of skewed frequencies in runs of 150 bytes, every other of which repeats the
+     * run before it, so that entropy coders have frequencies to exploit and match finders have
+     * matches to find.
+     *
+     * @param size the number of bytes.
+     * @param seed the seed of the letters.
+     * @return the sample.
+     */
+    static byte[] sample(int size, long seed) {
+        byte[] data = new byte[size];
+        Random random = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            data[i] = i % 300 < 150 ? (byte) ('a' + (int) Math.abs(random.nextGaussian() * 4)) : data[i - 150];
+        }
+        return data;
+    }
+
+    /**
+     * Returns a sample seeded with its size, so that samples of different sizes differ.
+     *
+     * @param size the number of bytes.
+     * @return the sample.
+     */
+    static byte[] sample(int size) {
+        return sample(size, size);
+    }
+}
@@ -0,0 +1,95 @@
+package no.flatline.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests writing codes with {@link BitWriter} and reading them back with {@link BitReader}.
+ *
+ * @author Rolv-Arild Braaten
+ * @version 0.1.0
+ */
+public class BitStreamTest {
+
+    @Test
+    public void codesOfEveryLengthRoundTrip() throws Exception {
+        Random random = new Random(1);
+        int n = 5000;
+        long[] codes = new long[n];
+        int[] lengths = new int[n];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        /* The smallest buffer, so that it is drained many times */
+        BitWriter writer = new BitWriter(out, 8);
+        for (int i = 0; i < n; i++) {
+            lengths[i] = random.nextInt(65);
+            codes[i] = lengths[i] == 0 ? 0 : random.nextLong() >>> (64 - lengths[i]);
+            writer.write(codes[i], lengths[i]);
+        }
+        writer.flush();
+
+        BitReader reader = new BitReader(new ByteArrayInputStream(out.toByteArray()), 8);
+        for (int i = 0; i < n; i++) {
+            long code = 0;
+            for (int left = lengths[i]; left > 0; left -= 32) {
+                int bits = Math.min(32, left);
+                code = code << bits | (reader.read(bits) & 0xffffffffL);
+            }
+            assertEquals("code " + i, codes[i], code);
+        }
+        reader.checkOverrun();
+    }
+
+    @Test
+    public void bitsAreWrittenMostSignificantFirstAndPaddedWithZeros() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BitWriter writer = new BitWriter(out);
+        writer.write(1, 1);
+        writer.write(0b101, 3);
+        writer.alignToByte();
+        writer.writeByte(0xa5);
+        writer.write(0b11, 2);
+        writer.flush();
+        assertArrayEquals(new byte[]{(byte) 0b1101_0000, (byte) 0xa5, (byte) 0b1100_0000}, out.toByteArray());
+    }
+
+    @Test
+    public void peekDoesNotConsume() throws Exception {
+        BitReader reader = new BitReader(new ByteArrayInputStream(new byte[]{(byte) 0b1011_0011, (byte) 0xff}));
+        assertEquals(0b1011, reader.peek(4));
+        assertEquals(0b101, reader.peek(3));
+        reader.consume(2);
+        assertEquals(0b11, reader.read(2));
+        reader.alignToByte();
+        assertEquals(0xff, reader.read(8));
+        reader.checkOverrun();
+    }
+
+    @Test
+    public void readingPastTheEndIsAnOverrun() throws Exception {
+        BitReader reader = new BitReader(new ByteArrayInputStream(new byte[]{(byte) 0xff}));
+        /* Peeking past the end only sees zeros */
+        assertEquals(0xff00, reader.peek(16));
+        reader.read(8);
+        reader.checkOverrun();
+        assertEquals(0, reader.read(1));
+        try {
+            reader.checkOverrun();
+            fail("Reading past the end was not reported");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tinyBuffersAreRefused() {
+        new BitWriter(new ByteArrayOutputStream(), 4);
+    }
+}